@@ -11,6 +11,8 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.io.File;
 import java.io.IOException;
@@ -22,6 +24,8 @@ import java.io.IOException;
 @Log4j2
 @RequiredArgsConstructor
 @SpringBootApplication
+@EnableScheduling
+@EnableAsync
 public class HistoviewerApplication {
 
 	private final ColorImportService colorImportService;
@@ -76,7 +80,7 @@ public class HistoviewerApplication {
 				log.info("Found JSON file at '{}'. Updating color mappings...", jsonFilePath);
                 // If the file exists, import the data
                 colorImportService.updateColorOnStartup(jsonFilePath);
-                log.info("Json color data imported successfully.");
+                log.info("Json color data import started.");
             } else {
 				// If the file doesn't exist, do nothing
 				log.info("XML file not found, nothing to import.");
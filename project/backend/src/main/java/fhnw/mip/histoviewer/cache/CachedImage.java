@@ -0,0 +1,24 @@
+package fhnw.mip.histoviewer.cache;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Image bytes held by one of the cache tiers together with the time they were stored.
+ *
+ * @param data     The raw image bytes as delivered by Orthanc.
+ * @param storedAt The moment the bytes were fetched from Orthanc.
+ */
+public record CachedImage(byte[] data, Instant storedAt) {
+
+    /**
+     * Checks whether this entry is older than the given time to live.
+     *
+     * @param ttl The time to live of the tier holding the entry.
+     * @param now The current time.
+     * @return true if the entry must no longer be served.
+     */
+    public boolean isExpired(Duration ttl, Instant now) {
+        return storedAt.plus(ttl).isBefore(now);
+    }
+}
@@ -0,0 +1,260 @@
+package fhnw.mip.histoviewer.cache;
+
+import fhnw.mip.histoviewer.service.ImageStreamConsumer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Persistent tier of the image cache, storing one file per entry in a directory that survives restarts.
+ * <p>
+ * The file name is the SHA-256 hash of the cache key and the file modification time is the moment the
+ * bytes were stored. When the byte budget is exceeded, the oldest files are deleted first.
+ * </p>
+ */
+@Log4j2
+public class DiskImageCache implements PersistentImageCache {
+
+    private static final String FILE_SUFFIX = ".img";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Duration ttl;
+    private final AtomicLong currentBytes = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * Creates a new disk tier and accounts for the files already present in the directory.
+     *
+     * @param directory The directory holding the cached files. It is created if missing.
+     * @param maxBytes  The maximum number of bytes kept on disk.
+     * @param ttl       The time after which an entry is no longer served.
+     * @throws IOException If the directory cannot be created or read.
+     */
+    public DiskImageCache(Path directory, long maxBytes, Duration ttl) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+
+        Files.createDirectories(directory);
+        try (Stream<Path> files = listCacheFiles()) {
+            currentBytes.set(files.mapToLong(this::sizeOf).sum());
+        }
+        log.info("Disk image cache at '{}' holds {} bytes.", directory, currentBytes.get());
+    }
+
+    @Override
+    public CachedImage get(String key) throws IOException {
+        CachedImage image = getStale(key);
+        if (image == null || image.isExpired(ttl, Instant.now())) {
+            return null;
+        }
+        return image;
+    }
+
+    @Override
+    public CachedImage getStale(String key) throws IOException {
+        Path file = fileFor(key);
+        try {
+            return new CachedImage(Files.readAllBytes(file), storedAt(file));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Resource getResource(String key) {
+        Path file = getFile(key);
+        return file != null ? new FileSystemResource(file) : null;
+    }
+
+    @Override
+    public Resource getStaleResource(String key) {
+        Path file = fileFor(key);
+        return Files.exists(file) ? new FileSystemResource(file) : null;
+    }
+
+    /**
+     * Returns the file holding the cached entry for the given key.
+     *
+     * @param key The cache key.
+     * @return The file, or null if the entry is missing or expired.
+     */
+    private Path getFile(String key) {
+        Path file = fileFor(key);
+        try {
+            return storedAt(file).plus(ttl).isBefore(Instant.now()) ? null : file;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public ImageValidator getValidator(String key) throws IOException {
+        Path file = getFile(key);
+        if (file == null) {
+            return null;
+        }
+        try (InputStream body = Files.newInputStream(file)) {
+            return ImageValidator.of(body, storedAt(file));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public int write(String key, InputStream body, long contentLength, ImageStreamConsumer overflow)
+            throws IOException {
+        if (contentLength > maxBytes) {
+            overflow.accept(body, contentLength);
+            return 0;
+        }
+        Path file = fileFor(key);
+        Path tempFile = Files.createTempFile(directory, "tmp-", ".part");
+        try {
+            long size = Files.copy(body, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            if (size > maxBytes) {
+                try (InputStream written = Files.newInputStream(tempFile)) {
+                    overflow.accept(written, size);
+                }
+                return 0;
+            }
+            long previousSize = sizeOf(file);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            currentBytes.addAndGet(size - previousSize);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return evictIfNeeded();
+    }
+
+    /**
+     * {@inheritDoc}
+     * The file is written to a temporary name first, so readers never observe partial content.
+     */
+    @Override
+    public int put(String key, CachedImage image) throws IOException {
+        if (image.data().length > maxBytes) {
+            return 0;
+        }
+        Path file = fileFor(key);
+        Path tempFile = Files.createTempFile(directory, "tmp-", ".part");
+        try {
+            Files.write(tempFile, image.data());
+            Files.setLastModifiedTime(tempFile, FileTime.from(image.storedAt()));
+            long previousSize = sizeOf(file);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            currentBytes.addAndGet(image.data().length - previousSize);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return evictIfNeeded();
+    }
+
+    @Override
+    public void remove(String key) {
+        delete(fileFor(key));
+    }
+
+    @Override
+    public long getCurrentBytes() {
+        return currentBytes.get();
+    }
+
+    /**
+     * Deletes the oldest files until the tier fits into its byte budget again.
+     *
+     * @return The number of files deleted.
+     */
+    private int evictIfNeeded() {
+        if (currentBytes.get() <= maxBytes) {
+            return 0;
+        }
+        int evicted = 0;
+        // Not synchronized, so virtual threads waiting for the directory listing do not pin their carrier
+        evictionLock.lock();
+        try (Stream<Path> files = listCacheFiles()) {
+            List<Path> oldestFirst = files
+                    .sorted(Comparator.comparing(this::lastModifiedOf))
+                    .toList();
+            for (Path file : oldestFirst) {
+                if (currentBytes.get() <= maxBytes) {
+                    break;
+                }
+                if (delete(file)) {
+                    evicted++;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to evict files from disk image cache at '{}'", directory, e);
+        } finally {
+            evictionLock.unlock();
+        }
+        return evicted;
+    }
+
+    private boolean delete(Path file) {
+        long size = sizeOf(file);
+        try {
+            if (Files.deleteIfExists(file)) {
+                currentBytes.addAndGet(-size);
+                return true;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to delete cached image file '{}'", file, e);
+        }
+        return false;
+    }
+
+    private Stream<Path> listCacheFiles() throws IOException {
+        return Files.list(directory).filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX));
+    }
+
+    private Path fileFor(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash) + FILE_SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private Instant storedAt(Path file) throws IOException {
+        return Files.getLastModifiedTime(file).toInstant();
+    }
+
+    private long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private FileTime lastModifiedOf(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,678 @@
+package fhnw.mip.histoviewer.cache;
+
+import fhnw.mip.histoviewer.exeption.ImageForwardingException;
+import fhnw.mip.histoviewer.exeption.OrthancUnavailableException;
+import fhnw.mip.histoviewer.service.ImageStreamConsumer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Two-tier cache for image bytes fetched from Orthanc.
+ * <p>
+ * Lookups go to a size-bounded in-memory LRU tier first and to a persistent disk tier second.
+ * The disk tier either keeps one file per entry or appends all entries to memory-mapped segment files,
+ * depending on {@code image.cache.disk.store}.
+ * Only if both tiers miss, the given loader is called and its result is stored in both tiers.
+ * For every cached entry a strong ETag and a Last-Modified time are kept, so conditional requests can be
+ * answered without fetching the image again.
+ * Concurrent misses for the same key share a single upstream fetch (single flight), so a burst of
+ * requests for one image results in one Orthanc request.
+ * If Orthanc is unavailable, expired entries still held by a tier are served as stale copies and refreshed in the
+ * background once Orthanc answers again.
+ * Hits, misses, evictions, coalesced requests and stale hits are exported as Micrometer metrics under
+ * {@code image.cache.*}.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class ImageCacheService {
+
+    private static final String TIER_MEMORY = "memory";
+    private static final String TIER_DISK = "disk";
+
+    @Value("${image.cache.memory.max-size}")
+    private DataSize memoryMaxSize;
+    @Value("${image.cache.memory.ttl}")
+    private Duration memoryTtl;
+    @Value("${image.cache.disk.enabled}")
+    private boolean diskEnabled;
+    @Value("${image.cache.disk.path}")
+    private String diskPath;
+    @Value("${image.cache.disk.max-size}")
+    private DataSize diskMaxSize;
+    @Value("${image.cache.disk.ttl}")
+    private Duration diskTtl;
+    @Value("${image.cache.disk.store}")
+    private String diskStore;
+    @Value("${image.cache.disk.segment-size}")
+    private DataSize diskSegmentSize;
+    @Value("${image.cache.disk.compaction-threshold}")
+    private double diskCompactionThreshold;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, CompletableFuture<byte[]>> inFlightLoads = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Boolean>> inFlightDownloads = new ConcurrentHashMap<>();
+    private final Map<String, ImageValidator> validators = new ConcurrentHashMap<>();
+    private final Map<String, Runnable> staleRefreshes = new ConcurrentHashMap<>();
+
+    private MemoryImageCache memoryCache;
+    private PersistentImageCache diskCache;
+
+    private Counter memoryHits;
+    private Counter diskHits;
+    private Counter misses;
+    private Counter memoryEvictions;
+    private Counter diskEvictions;
+    private Counter coalesced;
+    private Counter staleHits;
+
+    /**
+     * Creates the cache tiers and registers the cache metrics.
+     * If the disk directory cannot be used, the cache falls back to the memory tier only.
+     */
+    @PostConstruct
+    public void init() {
+        memoryCache = new MemoryImageCache(memoryMaxSize.toBytes(), memoryTtl);
+        if (diskEnabled) {
+            try {
+                diskCache = "mapped".equalsIgnoreCase(diskStore)
+                        ? new MappedImageCache(Path.of(diskPath), diskMaxSize.toBytes(),
+                        Math.toIntExact(diskSegmentSize.toBytes()), diskTtl, diskCompactionThreshold)
+                        : new DiskImageCache(Path.of(diskPath), diskMaxSize.toBytes(), diskTtl);
+            } catch (IOException e) {
+                log.error("Disk image cache at '{}' is not usable, continuing with memory tier only.", diskPath, e);
+            }
+        }
+
+        memoryHits = hitCounter(TIER_MEMORY);
+        diskHits = hitCounter(TIER_DISK);
+        misses = Counter.builder("image.cache.misses")
+                .description("Image lookups that had to be fetched from Orthanc")
+                .register(meterRegistry);
+        memoryEvictions = evictionCounter(TIER_MEMORY);
+        diskEvictions = evictionCounter(TIER_DISK);
+        coalesced = Counter.builder("image.cache.coalesced")
+                .description("Image lookups that joined an in-flight upstream fetch instead of starting their own")
+                .register(meterRegistry);
+        staleHits = Counter.builder("image.cache.stale")
+                .description("Image lookups served from an expired entry because Orthanc was unavailable")
+                .register(meterRegistry);
+        Gauge.builder("image.cache.stale.pending", staleRefreshes, Map::size)
+                .description("Stale entries waiting to be refreshed from Orthanc")
+                .register(meterRegistry);
+        Gauge.builder("image.cache.inflight", this, service -> service.inFlightLoads.size() + service.inFlightDownloads.size())
+                .description("Upstream fetches currently in flight")
+                .register(meterRegistry);
+
+        Gauge.builder("image.cache.size", memoryCache, MemoryImageCache::getCurrentBytes)
+                .description("Bytes currently held by the image cache tier")
+                .baseUnit("bytes")
+                .tag("tier", TIER_MEMORY)
+                .register(meterRegistry);
+        if (diskCache != null) {
+            Gauge.builder("image.cache.size", diskCache, PersistentImageCache::getCurrentBytes)
+                    .description("Bytes currently held by the image cache tier")
+                    .baseUnit("bytes")
+                    .tag("tier", TIER_DISK)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * Returns the image bytes for the given key, consulting the memory tier, then the disk tier
+     * and finally the loader. Callers missing the same key at the same time share one loader call.
+     * If the loader fails because Orthanc is unavailable, a stale copy is returned if a tier still holds one.
+     *
+     * @param key    The cache key, identifying the image and its variant.
+     * @param loader Fetches the image bytes if no tier holds them.
+     * @return The image bytes.
+     * @throws OrthancUnavailableException If Orthanc is unavailable and no stale copy is cached.
+     */
+    public byte[] get(String key, Supplier<byte[]> loader) {
+        byte[] cached = readCached(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        try {
+            return load(key, loader);
+        } catch (OrthancUnavailableException e) {
+            CachedImage stale = readStale(key);
+            if (stale == null) {
+                throw e;
+            }
+            log.warn("Orthanc unavailable, serving stale image '{}' stored at {}", key, stale.storedAt());
+            staleHits.increment();
+            staleRefreshes.putIfAbsent(key, () -> load(key, loader));
+            return stale.data();
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #get(String, Supplier)} for loaders that complete asynchronously.
+     * Cached entries are returned as completed futures. A miss starts the loader unless the key is already being
+     * loaded, by either variant, in which case that load is shared.
+     *
+     * @param key    The cache key, identifying the image and its variant.
+     * @param loader Starts fetching the image bytes if no tier holds them. Its future must not complete on an
+     *               event loop thread, as storing the result may write to disk.
+     * @return The image bytes, failing with an {@link OrthancUnavailableException} if Orthanc is unavailable and no
+     * stale copy is cached.
+     */
+    public CompletableFuture<byte[]> getAsync(String key, Supplier<CompletableFuture<byte[]>> loader) {
+        byte[] cached = readCached(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return loadAsync(key, loader).exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof OrthancUnavailableException unavailable) {
+                CachedImage stale = readStale(key);
+                if (stale == null) {
+                    throw unavailable;
+                }
+                log.warn("Orthanc unavailable, serving stale image '{}' stored at {}", key, stale.storedAt());
+                staleHits.increment();
+                staleRefreshes.putIfAbsent(key, () -> load(key, () -> await(loader.get())));
+                return stale.data();
+            }
+            throw e instanceof CompletionException completion ? completion : new CompletionException(cause);
+        });
+    }
+
+    /**
+     * Returns the image bytes for the given key if a tier holds them, without ever calling Orthanc.
+     *
+     * @param key The cache key, identifying the image and its variant.
+     * @return The image bytes, or empty if no tier holds them.
+     */
+    public Optional<byte[]> getIfPresent(String key) {
+        CachedImage image = memoryCache.get(key);
+        if (image == null) {
+            image = readFromDisk(key);
+        }
+        return Optional.ofNullable(image).map(CachedImage::data);
+    }
+
+    /**
+     * Stores image bytes that were derived in-process, e.g. tiles cut alongside the requested one.
+     *
+     * @param key  The cache key, identifying the image and its variant.
+     * @param data The image bytes.
+     */
+    public void put(String key, byte[] data) {
+        put(key, new CachedImage(data, Instant.now()));
+    }
+
+    /**
+     * Streams the image for the given key to the consumer without copying it onto the heap.
+     * <p>
+     * Memory hits are served from the cached array and disk hits from the cached file or mapped region. On a miss,
+     * the source body is written to the disk tier with a bounded buffer and then served from there. The stored entry
+     * is opened right after it is written, so it is still served if it is evicted meanwhile.
+     * Without a disk tier, or if its content length shows that the entry does not fit into the disk tier, the same
+     * source body is piped straight through. The source is only opened a second time if writing to the disk tier
+     * fails. If the source fails because Orthanc is unavailable before any of its body reached the consumer, a stale
+     * copy is streamed if a tier still holds one.
+     * </p>
+     *
+     * @param key      The cache key, identifying the image and its variant.
+     * @param source   Opens the upstream body and hands it to the given consumer.
+     * @param consumer Receives the image body.
+     * @throws IOException If reading or forwarding the image fails.
+     * @throws OrthancUnavailableException If Orthanc is unavailable and no stale copy is cached.
+     */
+    public void stream(String key, Consumer<ImageStreamConsumer> source, ImageStreamConsumer consumer)
+            throws IOException {
+        CachedImage image = memoryCache.get(key);
+        if (image != null) {
+            memoryHits.increment();
+            consumer.accept(new ByteArrayInputStream(image.data()), image.data().length);
+            return;
+        }
+
+        if (diskCache != null && streamResource(diskCache.getResource(key), consumer)) {
+            diskHits.increment();
+            return;
+        }
+
+        AtomicBoolean forwarded = new AtomicBoolean();
+        ImageStreamConsumer forwarding = (body, contentLength) -> {
+            forwarded.set(true);
+            consumer.accept(body, contentLength);
+        };
+        try {
+            if (diskCache != null) {
+                AtomicReference<StoredBody> stored = new AtomicReference<>();
+                try {
+                    download(key, source, forwarding, stored);
+                    if (forwarded.get()) {
+                        return;
+                    }
+                    if (stored.get() != null) {
+                        try (InputStream body = stored.get().body()) {
+                            consumer.accept(body, stored.get().contentLength());
+                        }
+                        return;
+                    }
+                    // Joined the download of another request, whose entry is served from the disk tier if kept
+                    if (streamResource(diskCache.getResource(key), consumer)) {
+                        return;
+                    }
+                } catch (ImageForwardingException e) {
+                    if (forwarded.get()) {
+                        throw e;
+                    }
+                    log.warn("Failed to write image '{}' to disk cache, streaming it directly", key, e.getCause());
+                }
+            } else {
+                misses.increment();
+            }
+            source.accept(forwarding);
+        } catch (ImageForwardingException e) {
+            throw e.getCause();
+        } catch (OrthancUnavailableException e) {
+            // Part of the body may already be sent, a stale copy appended to it would corrupt the response
+            if (forwarded.get() || !streamStale(key, consumer)) {
+                throw e;
+            }
+            log.warn("Orthanc unavailable, streamed stale image '{}'", key);
+            staleHits.increment();
+            if (diskCache != null) {
+                staleRefreshes.putIfAbsent(key, () -> download(key, source, (body, contentLength) -> {
+                    // Too large to be cached, so there is nothing to refresh
+                }, null));
+            }
+        }
+    }
+
+    /**
+     * Returns the current entry of the disk tier for the given key as a resource, so it can be served
+     * without loading it onto the heap.
+     *
+     * @param key The cache key.
+     * @return The resource, or empty if the disk tier does not hold a current entry.
+     */
+    public Optional<Resource> getResource(String key) {
+        Resource resource = diskCache != null ? diskCache.getResource(key) : null;
+        if (resource != null) {
+            diskHits.increment();
+        }
+        return Optional.ofNullable(resource);
+    }
+
+    /**
+     * Checks whether any tier holds a current entry for the given key, without loading it.
+     *
+     * @param key The cache key.
+     * @return true if the entry is cached.
+     */
+    public boolean contains(String key) {
+        return memoryCache.get(key) != null || (diskCache != null && diskCache.getResource(key) != null);
+    }
+
+    /**
+     * Returns the validators of the cached entry for the given key without contacting Orthanc.
+     * If only the disk tier holds the entry and its validators are not known yet, they are computed from the file.
+     *
+     * @param key The cache key, identifying the image and its variant.
+     * @return The validators, or empty if no tier holds the entry.
+     */
+    public Optional<ImageValidator> getValidator(String key) {
+        ImageValidator known = validators.get(key);
+        if (known != null && memoryCache.get(key) != null) {
+            return Optional.of(known);
+        }
+        if (diskCache != null && diskCache.getResource(key) != null) {
+            if (known != null) {
+                return Optional.of(known);
+            }
+            Optional<ImageValidator> computed = readValidatorFromDisk(key);
+            computed.ifPresent(validator -> validators.put(key, validator));
+            return computed;
+        }
+        // Neither tier holds the entry anymore, so its validators may no longer match Orthanc
+        validators.remove(key);
+        return Optional.empty();
+    }
+
+    /**
+     * Refreshes the stale entries served while Orthanc was unavailable.
+     * Stops at the first entry that still cannot be loaded, so an open circuit breaker is only probed once per run.
+     */
+    @Scheduled(fixedDelayString = "${image.cache.stale.refresh-interval}")
+    public void refreshStale() {
+        if (staleRefreshes.isEmpty()) {
+            return;
+        }
+        log.debug("Refreshing {} stale images.", staleRefreshes.size());
+
+        for (Map.Entry<String, Runnable> refresh : staleRefreshes.entrySet()) {
+            try {
+                refresh.getValue().run();
+                log.debug("Refreshed stale image '{}'", refresh.getKey());
+            } catch (OrthancUnavailableException e) {
+                log.debug("Orthanc still unavailable, keeping {} stale images.", staleRefreshes.size());
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Failed to refresh stale image '{}'", refresh.getKey(), e);
+            }
+            staleRefreshes.remove(refresh.getKey(), refresh.getValue());
+        }
+    }
+
+    /**
+     * Reclaims the space of replaced and removed entries in the disk tier, if the tier needs compaction.
+     */
+    @Scheduled(fixedDelayString = "${image.cache.disk.compaction-interval}")
+    public void compactDiskTier() {
+        if (diskCache == null) {
+            return;
+        }
+        long reclaimed = diskCache.compact();
+        if (reclaimed > 0) {
+            log.info("Compacted disk image cache, reclaimed {} bytes.", reclaimed);
+        }
+    }
+
+    /**
+     * Removes the entry for the given key from all tiers.
+     *
+     * @param key The cache key.
+     */
+    public void evict(String key) {
+        validators.remove(key);
+        staleRefreshes.remove(key);
+        memoryCache.remove(key);
+        if (diskCache != null) {
+            diskCache.remove(key);
+        }
+    }
+
+    /**
+     * Fetches the image bytes with the loader, sharing the call with concurrent misses, and stores them.
+     */
+    private byte[] load(String key, Supplier<byte[]> loader) {
+        return singleFlight(inFlightLoads, key, () -> {
+            misses.increment();
+            byte[] data = loader.get();
+            if (data != null) {
+                put(key, new CachedImage(data, Instant.now()));
+            }
+            return data;
+        });
+    }
+
+    /**
+     * Starts the asynchronous loader unless the key is already being loaded, and stores the result.
+     */
+    private CompletableFuture<byte[]> loadAsync(String key, Supplier<CompletableFuture<byte[]>> loader) {
+        CompletableFuture<byte[]> flight = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlightLoads.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            return running;
+        }
+
+        misses.increment();
+        CompletableFuture<byte[]> loading;
+        try {
+            loading = loader.get();
+        } catch (RuntimeException e) {
+            loading = CompletableFuture.failedFuture(e);
+        }
+        loading.whenComplete((data, e) -> {
+            try {
+                if (e == null && data != null) {
+                    put(key, new CachedImage(data, Instant.now()));
+                }
+            } finally {
+                inFlightLoads.remove(key, flight);
+            }
+            if (e != null) {
+                flight.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+            } else {
+                flight.complete(data);
+            }
+        });
+        return flight;
+    }
+
+    /**
+     * Writes the source body to the disk tier, sharing the download with concurrent misses.
+     * If the disk tier cannot keep the entry, the body is handed to the overflow consumer of the caller that
+     * started the download instead. Otherwise that caller receives the stored entry already opened, if requested.
+     */
+    private void download(String key, Consumer<ImageStreamConsumer> source, ImageStreamConsumer overflow,
+                          AtomicReference<StoredBody> stored) {
+        singleFlight(inFlightDownloads, key, () -> {
+            misses.increment();
+            try {
+                source.accept((body, contentLength) -> {
+                    AtomicBoolean overflowed = new AtomicBoolean();
+                    diskEvictions.increment(diskCache.write(key, body, contentLength, (tail, tailLength) -> {
+                        overflowed.set(true);
+                        overflow.accept(tail, tailLength);
+                    }));
+                    if (!overflowed.get() && stored != null) {
+                        stored.set(open(diskCache.getResource(key)));
+                    }
+                });
+            } catch (RuntimeException e) {
+                if (stored != null && stored.get() != null) {
+                    closeQuietly(stored.getAndSet(null).body());
+                }
+                throw e;
+            }
+            readValidatorFromDisk(key).ifPresent(validator -> validators.put(key, validator));
+            return Boolean.TRUE;
+        });
+    }
+
+    /**
+     * Opens a cached entry. An open file or mapped region stays readable after the entry is evicted.
+     *
+     * @return The opened entry, or null if it was evicted before it could be opened.
+     */
+    private static StoredBody open(Resource resource) throws IOException {
+        if (resource == null) {
+            return null;
+        }
+        try {
+            long contentLength = resource.contentLength();
+            return new StoredBody(resource.getInputStream(), contentLength);
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private void put(String key, CachedImage image) {
+        validators.put(key, ImageValidator.of(image.data(), image.storedAt()));
+        memoryEvictions.increment(memoryCache.put(key, image));
+        if (diskCache != null) {
+            try {
+                diskEvictions.increment(diskCache.put(key, image));
+            } catch (IOException e) {
+                log.warn("Failed to write image '{}' to disk cache", key, e);
+            }
+        }
+    }
+
+    /**
+     * Runs the loader for the given key unless another thread is already loading it,
+     * in which case the result of that load is awaited and shared.
+     *
+     * @param inFlight The registry of loads currently running.
+     * @param key      The cache key.
+     * @param loader   Performs the upstream fetch.
+     * @return The result of the (possibly shared) load.
+     */
+    private <T> T singleFlight(Map<String, CompletableFuture<T>> inFlight, String key, Supplier<T> loader) {
+        CompletableFuture<T> flight = new CompletableFuture<>();
+        CompletableFuture<T> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            return await(running);
+        }
+
+        try {
+            T result = loader.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Waits for a future and rethrows its runtime failure as is, so callers can handle it by type.
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the image bytes if a tier holds them. Disk hits are promoted to the memory tier.
+     */
+    private byte[] readCached(String key) {
+        CachedImage image = memoryCache.get(key);
+        if (image != null) {
+            memoryHits.increment();
+            return image.data();
+        }
+
+        image = readFromDisk(key);
+        if (image != null) {
+            diskHits.increment();
+            CachedImage diskImage = image;
+            validators.computeIfAbsent(key, k -> ImageValidator.of(diskImage.data(), diskImage.storedAt()));
+            memoryEvictions.increment(memoryCache.put(key, image));
+            return image.data();
+        }
+        return null;
+    }
+
+    private boolean streamResource(Resource resource, ImageStreamConsumer consumer) throws IOException {
+        if (resource == null) {
+            return false;
+        }
+        try (InputStream body = resource.getInputStream()) {
+            consumer.accept(body, resource.contentLength());
+            return true;
+        } catch (NoSuchFileException e) {
+            // Evicted between lookup and read
+            return false;
+        }
+    }
+
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException e) {
+            log.debug("Failed to close cached image body", e);
+        }
+    }
+
+    private boolean streamStale(String key, ImageStreamConsumer consumer) throws IOException {
+        CachedImage image = memoryCache.getStale(key);
+        if (image != null) {
+            consumer.accept(new ByteArrayInputStream(image.data()), image.data().length);
+            return true;
+        }
+        return diskCache != null && streamResource(diskCache.getStaleResource(key), consumer);
+    }
+
+    private CachedImage readStale(String key) {
+        CachedImage image = memoryCache.getStale(key);
+        if (image != null || diskCache == null) {
+            return image;
+        }
+        try {
+            return diskCache.getStale(key);
+        } catch (IOException e) {
+            log.warn("Failed to read stale image '{}' from disk cache", key, e);
+            return null;
+        }
+    }
+
+    private Optional<ImageValidator> readValidatorFromDisk(String key) {
+        try {
+            return Optional.ofNullable(diskCache.getValidator(key));
+        } catch (IOException e) {
+            log.warn("Failed to compute validators of image '{}' from disk cache", key, e);
+            return Optional.empty();
+        }
+    }
+
+    private CachedImage readFromDisk(String key) {
+        if (diskCache == null) {
+            return null;
+        }
+        try {
+            return diskCache.get(key);
+        } catch (IOException e) {
+            log.warn("Failed to read image '{}' from disk cache", key, e);
+            return null;
+        }
+    }
+
+    private Counter hitCounter(String tier) {
+        return Counter.builder("image.cache.hits")
+                .description("Image lookups served from the cache tier")
+                .tag("tier", tier)
+                .register(meterRegistry);
+    }
+
+    private Counter evictionCounter(String tier) {
+        return Counter.builder("image.cache.evictions")
+                .description("Entries evicted from the cache tier to stay within its byte budget")
+                .tag("tier", tier)
+                .register(meterRegistry);
+    }
+
+    /**
+     * An opened cached entry, handed to the request that downloaded it.
+     */
+    private record StoredBody(InputStream body, long contentLength) {
+    }
+}
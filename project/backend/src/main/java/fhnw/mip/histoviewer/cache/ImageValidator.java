@@ -0,0 +1,62 @@
+package fhnw.mip.histoviewer.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HexFormat;
+
+/**
+ * HTTP validators of a cached image, used to answer conditional requests without fetching the image again.
+ *
+ * @param etag         Strong entity tag derived from the SHA-256 hash of the image bytes, including quotes.
+ * @param lastModified The moment the image was fetched from Orthanc.
+ */
+public record ImageValidator(String etag, Instant lastModified) {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Computes the validators of an image held in memory.
+     *
+     * @param data     The image bytes.
+     * @param storedAt The moment the image was fetched.
+     * @return The validators of the image.
+     */
+    public static ImageValidator of(byte[] data, Instant storedAt) {
+        MessageDigest digest = sha256();
+        digest.update(data);
+        return new ImageValidator(toEtag(digest), storedAt);
+    }
+
+    /**
+     * Computes the validators of an image by reading it once with a bounded buffer.
+     *
+     * @param body     The image bytes as a stream.
+     * @param storedAt The moment the image was fetched.
+     * @return The validators of the image.
+     * @throws IOException If the stream cannot be read.
+     */
+    public static ImageValidator of(InputStream body, Instant storedAt) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return new ImageValidator(toEtag(digest), storedAt);
+    }
+
+    private static String toEtag(MessageDigest digest) {
+        return "\"" + HexFormat.of().formatHex(digest.digest()) + "\"";
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,601 @@
+package fhnw.mip.histoviewer.cache;
+
+import fhnw.mip.histoviewer.service.ImageStreamConsumer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.io.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Persistent tier of the image cache, appending all entries to a few large memory-mapped segment files.
+ * <p>
+ * Entries are located through an in-memory index from cache key to segment and offset, which is rebuilt by
+ * scanning the segments on startup. Reads are served from the mapped regions, so neither the cached bytes nor
+ * their page cache copies count towards the Java heap.
+ * </p>
+ * <p>
+ * Replacing or removing an entry only marks its old record as removed. Segments whose live share drops below the
+ * compaction threshold are compacted by copying their live records to the active segment and deleting the file.
+ * When the byte budget is exceeded, the oldest segment is dropped as a whole.
+ * </p>
+ * <p>
+ * Each record consists of a state byte, the key length, the data length, the storage time in epoch milliseconds,
+ * the UTF-8 encoded key and the data. A record is first written as reserved and marked committed only once its
+ * data is complete, so a crash never exposes partial entries.
+ * </p>
+ */
+@Log4j2
+public class MappedImageCache implements PersistentImageCache {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final byte STATE_END = 0;
+    private static final byte STATE_RESERVED = 1;
+    private static final byte STATE_COMMITTED = 2;
+    private static final byte STATE_REMOVED = 3;
+    /** State (1), key length (4), data length (4) and storage time (8). */
+    private static final int HEADER_SIZE = 17;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final int segmentSize;
+    private final Duration ttl;
+    private final double compactionThreshold;
+
+    private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock maintenanceLock = new ReentrantLock();
+    private volatile Segment activeSegment;
+
+    /**
+     * Creates a new mapped tier and rebuilds the index from the segments already present in the directory.
+     *
+     * @param directory           The directory holding the segment files. It is created if missing.
+     * @param maxBytes            The maximum number of bytes kept in all segments.
+     * @param segmentSize         The size of each segment file in bytes.
+     * @param ttl                 The time after which an entry is no longer served as fresh.
+     * @param compactionThreshold The share of live bytes below which a segment is compacted, between 0 and 1.
+     * @throws IOException If the directory or a segment cannot be read.
+     */
+    public MappedImageCache(Path directory, long maxBytes, int segmentSize, Duration ttl, double compactionThreshold)
+            throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentSize = segmentSize;
+        this.ttl = ttl;
+        this.compactionThreshold = compactionThreshold;
+
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            // Replayed oldest first, so the newest record of a key wins
+            files = listing.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted(Comparator.comparingInt(this::segmentIdOf))
+                    .toList();
+        }
+        for (Path file : files) {
+            Segment segment = map(file, segmentIdOf(file), Files.size(file));
+            recover(segment);
+            segments.put(segment.id, segment);
+        }
+        activeSegment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        log.info("Mapped image cache at '{}' holds {} entries in {} segments ({} bytes).",
+                directory, index.size(), segments.size(), usedBytes.get());
+    }
+
+    @Override
+    public CachedImage get(String key) {
+        Entry entry = index.get(key);
+        return entry == null || entry.isExpired(ttl) ? null : read(entry);
+    }
+
+    @Override
+    public CachedImage getStale(String key) {
+        Entry entry = index.get(key);
+        return entry == null ? null : read(entry);
+    }
+
+    @Override
+    public Resource getResource(String key) {
+        Entry entry = index.get(key);
+        return entry == null || entry.isExpired(ttl) ? null : resourceOf(key, entry);
+    }
+
+    @Override
+    public Resource getStaleResource(String key) {
+        Entry entry = index.get(key);
+        return entry == null ? null : resourceOf(key, entry);
+    }
+
+    @Override
+    public ImageValidator getValidator(String key) throws IOException {
+        Entry entry = index.get(key);
+        if (entry == null || entry.isExpired(ttl)) {
+            return null;
+        }
+        try (InputStream body = resourceOf(key, entry).getInputStream()) {
+            return ImageValidator.of(body, entry.storedAt);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * If the content length is known, the body is copied straight into a record of that length. Otherwise the rest
+     * of the active segment is reserved and, if the body outgrows it, the part already read is moved to a new
+     * segment. The unused tail of the reservation is returned to the segment once the body is complete.
+     */
+    @Override
+    public int write(String key, InputStream body, long contentLength, ImageStreamConsumer overflow)
+            throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int maxLength = segmentSize - HEADER_SIZE - keyBytes.length;
+        if (contentLength > maxLength) {
+            overflow.accept(body, contentLength);
+            return 0;
+        }
+
+        Instant storedAt = Instant.now();
+        Entry reserved = contentLength < 0
+                ? reserveRemainder(keyBytes, storedAt, false)
+                : reserve(keyBytes, (int) contentLength, storedAt);
+        if (reserved == null) {
+            overflow.accept(body, contentLength);
+            return 0;
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int written = 0;
+            int read;
+            while ((read = body.read(buffer)) != -1) {
+                if (written + read > reserved.length) {
+                    if (contentLength >= 0) {
+                        throw new IOException("Image body is longer than its content length of " + contentLength);
+                    }
+                    Entry larger = written + read <= maxLength && reserved.length < maxLength
+                            ? reserveRemainder(keyBytes, storedAt, true)
+                            : null;
+                    if (larger == null) {
+                        // The body does not fit into a segment, so the part already read is handed on with the rest
+                        InputStream readPart = resourceOf(key, reserved.withLength(written)).getInputStream();
+                        overflow.accept(new SequenceInputStream(Collections.enumeration(List.of(readPart,
+                                new ByteArrayInputStream(buffer, 0, read), body))), -1);
+                        discard(reserved);
+                        return 0;
+                    }
+                    larger.segment.buffer.put(larger.dataOffset, reserved.segment.buffer, reserved.dataOffset, written);
+                    discard(reserved);
+                    reserved = larger;
+                }
+                reserved.segment.buffer.put(reserved.dataOffset + written, buffer, 0, read);
+                written += read;
+            }
+            if (contentLength >= 0 && written != contentLength) {
+                throw new IOException("Image body is shorter than its content length of " + contentLength);
+            }
+            if (contentLength < 0) {
+                reserved = trim(reserved, written);
+            }
+        } catch (IOException | RuntimeException e) {
+            discard(reserved);
+            throw e;
+        }
+        commit(key, reserved);
+        return evictIfNeeded();
+    }
+
+    @Override
+    public int put(String key, CachedImage image) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        Entry reserved = reserve(keyBytes, image.data().length, image.storedAt());
+        if (reserved == null) {
+            return 0;
+        }
+        reserved.segment.buffer.put(reserved.dataOffset, image.data());
+        commit(key, reserved);
+        return evictIfNeeded();
+    }
+
+    @Override
+    public void remove(String key) {
+        Entry removed = index.remove(key);
+        if (removed != null) {
+            markRemoved(removed);
+        }
+    }
+
+    /**
+     * Compacts all segments except the active one whose share of live bytes is below the compaction threshold.
+     *
+     * @return The number of bytes reclaimed.
+     */
+    @Override
+    public long compact() {
+        long reclaimed = 0;
+        maintenanceLock.lock();
+        try {
+            for (Segment segment : List.copyOf(segments.values())) {
+                if (!isRetired(segment) || segment.writePosition == 0
+                        || segment.liveBytes.get() >= segment.writePosition * compactionThreshold) {
+                    continue;
+                }
+                int moved = 0;
+                for (Map.Entry<String, Entry> indexed : index.entrySet()) {
+                    if (indexed.getValue().segment == segment && relocate(indexed.getKey(), indexed.getValue())) {
+                        moved++;
+                    }
+                }
+                long freed = segment.writePosition - segment.liveBytes.get();
+                log.debug("Compacted segment {}: moved {} entries, reclaimed {} bytes.", segment.id, moved, freed);
+                reclaimed += freed;
+                drop(segment);
+            }
+        } finally {
+            maintenanceLock.unlock();
+        }
+        return reclaimed;
+    }
+
+    @Override
+    public long getCurrentBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Reserves space for a record in the active segment, starting a new segment if it does not fit.
+     * The header and key are written immediately; the record stays invisible until it is committed.
+     *
+     * @return The location of the reserved record, or null if the record is larger than a segment.
+     */
+    private Entry reserve(byte[] keyBytes, int length, Instant storedAt) {
+        int recordSize = HEADER_SIZE + keyBytes.length + length;
+        if (recordSize > segmentSize) {
+            return null;
+        }
+
+        appendLock.lock();
+        try {
+            Segment segment = activeSegment;
+            if (segment == null || segment.writePosition + recordSize > segment.buffer.capacity()) {
+                segment = startSegment();
+            }
+            return reserveAt(segment, keyBytes, length, storedAt);
+        } catch (IOException e) {
+            log.warn("Failed to create segment in mapped image cache at '{}'", directory, e);
+            return null;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Reserves the rest of the active segment for a record of unknown length, or a whole new segment if requested
+     * or if not even the key fits. No other record is appended to the segment until the record is trimmed.
+     *
+     * @return The location of the reserved record, or null if no segment could be created.
+     */
+    private Entry reserveRemainder(byte[] keyBytes, Instant storedAt, boolean newSegment) {
+        appendLock.lock();
+        try {
+            Segment segment = activeSegment;
+            if (newSegment || segment == null
+                    || segment.writePosition + HEADER_SIZE + keyBytes.length >= segment.buffer.capacity()) {
+                segment = startSegment();
+            }
+            int length = segment.buffer.capacity() - segment.writePosition - HEADER_SIZE - keyBytes.length;
+            return reserveAt(segment, keyBytes, length, storedAt);
+        } catch (IOException e) {
+            log.warn("Failed to create segment in mapped image cache at '{}'", directory, e);
+            return null;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the header and key of a record at the write position of the segment. Must hold the append lock.
+     */
+    private Entry reserveAt(Segment segment, byte[] keyBytes, int length, Instant storedAt) {
+        int recordSize = HEADER_SIZE + keyBytes.length + length;
+        int offset = segment.writePosition;
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putInt(offset + 1, keyBytes.length);
+        buffer.putInt(offset + 5, length);
+        buffer.putLong(offset + 9, storedAt.toEpochMilli());
+        buffer.put(offset + HEADER_SIZE, keyBytes);
+        // Written last, so recovery never reads a half-written header
+        buffer.put(offset, STATE_RESERVED);
+
+        segment.writePosition += recordSize;
+        segment.pendingRecords.incrementAndGet();
+        usedBytes.addAndGet(recordSize);
+        return new Entry(segment, offset, offset + HEADER_SIZE + keyBytes.length, length, recordSize, storedAt);
+    }
+
+    /**
+     * Creates a new segment and makes it the active one. Must hold the append lock.
+     */
+    private Segment startSegment() throws IOException {
+        int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        Segment segment = map(directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX), id, segmentSize);
+        segments.put(id, segment);
+        activeSegment = segment;
+        return segment;
+    }
+
+    /**
+     * Shortens a record reserved by {@link #reserveRemainder} to the given data length and returns the rest of the
+     * segment to it. The record was the last one reserved in its segment, so nothing was appended after it.
+     *
+     * @return The location of the shortened record.
+     */
+    private Entry trim(Entry entry, int length) {
+        Entry trimmed = entry.withLength(length);
+        int end = trimmed.recordOffset + trimmed.recordSize;
+        MappedByteBuffer buffer = entry.segment.buffer;
+        buffer.putInt(entry.recordOffset + 5, length);
+        appendLock.lock();
+        try {
+            if (end + HEADER_SIZE <= buffer.capacity()) {
+                // Recovery stops here until the next record is reserved
+                buffer.put(end, STATE_END);
+            }
+            entry.segment.writePosition = end;
+            usedBytes.addAndGet(trimmed.recordSize - entry.recordSize);
+        } finally {
+            appendLock.unlock();
+        }
+        return trimmed;
+    }
+
+    /**
+     * Marks a reserved record as removed without making it visible.
+     */
+    private void discard(Entry entry) {
+        entry.segment.buffer.put(entry.recordOffset, STATE_REMOVED);
+        entry.segment.pendingRecords.decrementAndGet();
+    }
+
+    /**
+     * Makes a reserved record visible and marks the record it replaces as removed.
+     * The record is discarded if its segment was dropped meanwhile.
+     */
+    private void commit(String key, Entry entry) {
+        try {
+            if (segments.get(entry.segment.id) != entry.segment) {
+                log.warn("Segment {} was dropped while the entry [{}] was written, discarding it.",
+                        entry.segment.id, key);
+                return;
+            }
+            entry.segment.buffer.put(entry.recordOffset, STATE_COMMITTED);
+            entry.segment.liveBytes.addAndGet(entry.recordSize);
+            Entry previous = index.put(key, entry);
+            if (previous != null) {
+                markRemoved(previous);
+            }
+        } finally {
+            entry.segment.pendingRecords.decrementAndGet();
+        }
+    }
+
+    /**
+     * Copies a live record to the active segment, unless the entry is replaced or removed meanwhile.
+     *
+     * @return true if the record was moved.
+     */
+    private boolean relocate(String key, Entry entry) {
+        Entry copy = reserve(key.getBytes(StandardCharsets.UTF_8), entry.length, entry.storedAt);
+        if (copy == null) {
+            return false;
+        }
+        try {
+            copy.segment.buffer.put(copy.dataOffset, entry.segment.buffer, entry.dataOffset, entry.length);
+            if (!index.replace(key, entry, copy)) {
+                copy.segment.buffer.put(copy.recordOffset, STATE_REMOVED);
+                return false;
+            }
+            copy.segment.buffer.put(copy.recordOffset, STATE_COMMITTED);
+            copy.segment.liveBytes.addAndGet(copy.recordSize);
+            return true;
+        } finally {
+            copy.segment.pendingRecords.decrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the oldest segments until the tier fits into its byte budget again. The active segment and segments
+     * with records still being written are never dropped.
+     *
+     * @return The number of entries evicted.
+     */
+    private int evictIfNeeded() {
+        if (usedBytes.get() <= maxBytes) {
+            return 0;
+        }
+        int evicted = 0;
+        maintenanceLock.lock();
+        try {
+            for (Segment segment : List.copyOf(segments.values())) {
+                if (usedBytes.get() <= maxBytes) {
+                    break;
+                }
+                if (isRetired(segment)) {
+                    evicted += drop(segment);
+                }
+            }
+        } finally {
+            maintenanceLock.unlock();
+        }
+        return evicted;
+    }
+
+    /**
+     * Tells whether a segment may be dropped: it is no longer active and no reserved record in it is being written.
+     * Both only change under the append lock, and a segment that is no longer active never receives new records.
+     */
+    private boolean isRetired(Segment segment) {
+        appendLock.lock();
+        try {
+            return segment != activeSegment && segment.pendingRecords.get() == 0;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a segment and all index entries still pointing to it, then deletes its file.
+     * Readers holding a region of the segment keep reading from the mapping until they are done.
+     *
+     * @return The number of entries removed from the index.
+     */
+    private int drop(Segment segment) {
+        List<String> keys = new ArrayList<>();
+        index.forEach((key, entry) -> {
+            if (entry.segment == segment) {
+                keys.add(key);
+            }
+        });
+        int dropped = 0;
+        for (String key : keys) {
+            Entry entry = index.get(key);
+            if (entry != null && entry.segment == segment && index.remove(key, entry)) {
+                dropped++;
+            }
+        }
+        segments.remove(segment.id);
+        usedBytes.addAndGet(-segment.writePosition);
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            log.warn("Failed to delete segment file '{}'", segment.path, e);
+        }
+        return dropped;
+    }
+
+    private void markRemoved(Entry entry) {
+        entry.segment.buffer.put(entry.recordOffset, STATE_REMOVED);
+        entry.segment.liveBytes.addAndGet(-entry.recordSize);
+    }
+
+    /**
+     * Rebuilds the index entries of a segment. Reading stops at the first unwritten or corrupt header.
+     */
+    private void recover(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + HEADER_SIZE <= buffer.capacity()) {
+            byte state = buffer.get(offset);
+            if (state == STATE_END) {
+                break;
+            }
+            int keyLength = buffer.getInt(offset + 1);
+            int length = buffer.getInt(offset + 5);
+            long recordSize = (long) HEADER_SIZE + keyLength + length;
+            if (keyLength <= 0 || length < 0 || offset + recordSize > buffer.capacity()) {
+                log.warn("Corrupt record at offset {} of segment {}, ignoring the rest of the segment.", offset, segment.id);
+                break;
+            }
+            if (state == STATE_COMMITTED) {
+                byte[] keyBytes = new byte[keyLength];
+                buffer.get(offset + HEADER_SIZE, keyBytes);
+                Instant storedAt = Instant.ofEpochMilli(buffer.getLong(offset + 9));
+                Entry entry = new Entry(segment, offset, offset + HEADER_SIZE + keyLength, length,
+                        (int) recordSize, storedAt);
+                segment.liveBytes.addAndGet(entry.recordSize);
+                Entry previous = index.put(new String(keyBytes, StandardCharsets.UTF_8), entry);
+                if (previous != null) {
+                    previous.segment.liveBytes.addAndGet(-previous.recordSize);
+                }
+            }
+            offset += (int) recordSize;
+        }
+        segment.writePosition = offset;
+        usedBytes.addAndGet(offset);
+    }
+
+    private CachedImage read(Entry entry) {
+        byte[] data = new byte[entry.length];
+        entry.segment.buffer.get(entry.dataOffset, data);
+        return new CachedImage(data, entry.storedAt);
+    }
+
+    private Resource resourceOf(String key, Entry entry) {
+        return new MappedRegionResource(entry.segment.buffer.slice(entry.dataOffset, entry.length),
+                "mapped image cache entry [" + key + "]");
+    }
+
+    private Segment map(Path file, int id, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            return new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    private int segmentIdOf(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * A mapped segment file. The write position is only advanced and records are only reserved while holding the
+     * append lock. Pending records are reserved but not yet committed or discarded.
+     */
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final AtomicLong liveBytes = new AtomicLong();
+        private final AtomicInteger pendingRecords = new AtomicInteger();
+        private volatile int writePosition;
+
+        Segment(int id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Location of a record within a segment.
+     */
+    private record Entry(Segment segment, int recordOffset, int dataOffset, int length, int recordSize,
+                         Instant storedAt) {
+
+        boolean isExpired(Duration ttl) {
+            return storedAt.plus(ttl).isBefore(Instant.now());
+        }
+
+        Entry withLength(int length) {
+            return new Entry(segment, recordOffset, dataOffset, length, recordSize - this.length + length, storedAt);
+        }
+    }
+}
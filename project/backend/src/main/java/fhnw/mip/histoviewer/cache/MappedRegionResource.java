@@ -0,0 +1,88 @@
+package fhnw.mip.histoviewer.cache;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Resource over a region of a memory-mapped file. Reading it copies the bytes straight from the mapping
+ * to the caller's buffer, without an intermediate copy of the whole region on the heap.
+ */
+public class MappedRegionResource extends AbstractResource {
+
+    private final ByteBuffer region;
+    private final String description;
+
+    /**
+     * Creates a resource over the remaining bytes of the given buffer.
+     *
+     * @param region      The mapped region; its position and limit are not changed by reads.
+     * @param description Describes the resource in log and error messages.
+     */
+    public MappedRegionResource(ByteBuffer region, String description) {
+        this.region = region.asReadOnlyBuffer();
+        this.description = description;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new RegionInputStream(region.duplicate());
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public long contentLength() {
+        return region.remaining();
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Stream over a buffer. Skipping only moves the position, so ranges are served without reading the skipped bytes.
+     */
+    private static final class RegionInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        RegionInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(target, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package fhnw.mip.histoviewer.cache;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-process LRU tier of the image cache, bounded by the total number of cached bytes.
+ * <p>
+ * Entries are kept in access order, so the least recently used images are evicted first
+ * once the byte budget is exceeded. Expired entries are no longer served as fresh, but are kept until
+ * they are evicted, so they can still be served as stale copies while Orthanc is unavailable.
+ * </p>
+ */
+public class MemoryImageCache {
+
+    private final long maxBytes;
+    private final Duration ttl;
+    private final LinkedHashMap<String, CachedImage> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes;
+
+    /**
+     * Creates a new memory tier.
+     *
+     * @param maxBytes The maximum number of image bytes kept on the heap.
+     * @param ttl      The time after which an entry is no longer served.
+     */
+    public MemoryImageCache(long maxBytes, Duration ttl) {
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns the cached entry for the given key.
+     *
+     * @param key The cache key.
+     * @return The cached entry, or null if it is missing or expired.
+     */
+    public synchronized CachedImage get(String key) {
+        CachedImage image = entries.get(key);
+        if (image == null || image.isExpired(ttl, Instant.now())) {
+            return null;
+        }
+        return image;
+    }
+
+    /**
+     * Returns the cached entry for the given key, even if it has expired.
+     *
+     * @param key The cache key.
+     * @return The cached entry, or null if it is missing.
+     */
+    public synchronized CachedImage getStale(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Stores an entry and evicts the least recently used entries until the byte budget is met again.
+     * Entries larger than the whole budget are not cached at all.
+     *
+     * @param key   The cache key.
+     * @param image The entry to store.
+     * @return The number of entries evicted to make room.
+     */
+    public synchronized int put(String key, CachedImage image) {
+        if (image.data().length > maxBytes) {
+            return 0;
+        }
+        remove(key);
+        entries.put(key, image);
+        currentBytes += image.data().length;
+
+        int evicted = 0;
+        Iterator<Map.Entry<String, CachedImage>> iterator = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, CachedImage> eldest = iterator.next();
+            currentBytes -= eldest.getValue().data().length;
+            iterator.remove();
+            evicted++;
+        }
+        return evicted;
+    }
+
+    /**
+     * Removes the entry for the given key if present.
+     *
+     * @param key The cache key.
+     */
+    public synchronized void remove(String key) {
+        CachedImage removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.data().length;
+        }
+    }
+
+    /**
+     * @return The number of image bytes currently held on the heap.
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    /**
+     * @return The number of entries currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,110 @@
+package fhnw.mip.histoviewer.cache;
+
+import fhnw.mip.histoviewer.service.ImageStreamConsumer;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Persistent tier of the image cache, holding image bytes outside the Java heap.
+ * <p>
+ * Entries that are older than the time to live of the tier are no longer served as fresh, but are kept until
+ * they are evicted by the byte budget, so they can still be served as stale copies while Orthanc is unavailable.
+ * </p>
+ *
+ * @see DiskImageCache
+ * @see MappedImageCache
+ */
+public interface PersistentImageCache {
+
+    /**
+     * Reads the cached entry for the given key onto the heap.
+     *
+     * @param key The cache key.
+     * @return The cached entry, or null if it is missing or expired.
+     * @throws IOException If the entry exists but cannot be read.
+     */
+    CachedImage get(String key) throws IOException;
+
+    /**
+     * Reads the cached entry for the given key onto the heap, even if it has expired.
+     *
+     * @param key The cache key.
+     * @return The cached entry, or null if it is missing.
+     * @throws IOException If the entry exists but cannot be read.
+     */
+    CachedImage getStale(String key) throws IOException;
+
+    /**
+     * Returns the cached entry for the given key as a resource, so it can be served without loading it onto the heap.
+     *
+     * @param key The cache key.
+     * @return The resource, or null if the entry is missing or expired.
+     */
+    Resource getResource(String key);
+
+    /**
+     * Returns the cached entry for the given key as a resource, even if it has expired.
+     *
+     * @param key The cache key.
+     * @return The resource, or null if the entry is missing.
+     */
+    Resource getStaleResource(String key);
+
+    /**
+     * Computes the validators of the cached entry for the given key by reading it once.
+     *
+     * @param key The cache key.
+     * @return The validators, or null if the entry is missing or expired.
+     * @throws IOException If the entry exists but cannot be read.
+     */
+    ImageValidator getValidator(String key) throws IOException;
+
+    /**
+     * Copies a stream into the tier with a bounded buffer and evicts old entries if the byte budget is exceeded.
+     * If the entry cannot be kept by the tier, the body is handed to the overflow consumer instead, including the
+     * part already read, so it can still be served without fetching it again. If the content length is known and
+     * too large, the body is handed on without reading it.
+     *
+     * @param key           The cache key.
+     * @param body          The image bytes to store.
+     * @param contentLength The number of bytes in the body, or -1 if unknown.
+     * @param overflow      Receives the body if the entry cannot be kept.
+     * @return The number of entries evicted to make room.
+     * @throws IOException If the stream cannot be read, the entry cannot be written or the overflow consumer fails.
+     */
+    int write(String key, InputStream body, long contentLength, ImageStreamConsumer overflow) throws IOException;
+
+    /**
+     * Stores an entry and evicts old entries if the byte budget is exceeded.
+     * Readers never observe partially written entries.
+     *
+     * @param key   The cache key.
+     * @param image The entry to store.
+     * @return The number of entries evicted to make room.
+     * @throws IOException If the entry cannot be written.
+     */
+    int put(String key, CachedImage image) throws IOException;
+
+    /**
+     * Removes the entry for the given key if present.
+     *
+     * @param key The cache key.
+     */
+    void remove(String key);
+
+    /**
+     * Reclaims space taken by removed, replaced or evicted entries. Does nothing for tiers that free space immediately.
+     *
+     * @return The number of bytes reclaimed.
+     */
+    default long compact() {
+        return 0;
+    }
+
+    /**
+     * @return The number of bytes currently stored by the tier.
+     */
+    long getCurrentBytes();
+}
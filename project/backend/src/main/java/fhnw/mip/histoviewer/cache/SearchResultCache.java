@@ -0,0 +1,261 @@
+package fhnw.mip.histoviewer.cache;
+
+import fhnw.mip.histoviewer.service.SearchEngine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiPredicate;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the IDs of the DicomData entities matching a search, keyed by the normalized search criteria.
+ * <p>
+ * Criteria are normalized before lookup: unknown and blank criteria are dropped, since the search ignores them,
+ * whitespace is trimmed and collapsed, and the case of the criteria matched case-insensitively is folded.
+ * So equivalent searches share an entry, provided the search runs on the normalized criteria.
+ * Entries are kept in access order and the least recently used ones are evicted once the number of cached IDs
+ * exceeds {@code search.cache.capacity}; every entry counts one more than its IDs, so empty results are bounded too.
+ * </p>
+ * <p>
+ * Writers invalidate the entries their change can affect: removing a match evicts only the searches that contained
+ * it, while adding tags or comments to an entry also evicts the searches on that criterion whose term may match the
+ * added values. Inside a transaction, entries are evicted once it is committed, so a concurrent search cannot cache
+ * the old state again, and a rollback keeps them.
+ * A search that overlaps an invalidation does not store its result.
+ * Hits and misses are exported as Micrometer metrics under {@code search.cache.*}.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class SearchResultCache {
+
+    public static final String DESCRIPTION = "descriptionSearchTerm";
+    public static final String TAGS = "tagSearchTerm";
+    public static final String COMMENTS = "commentsSearchTerm";
+    public static final String COLOR = "colorSearchTerm";
+
+    private static final List<String> CASE_SENSITIVE_CRITERIA = List.of(TAGS);
+    private static final List<String> CRITERIA = List.of(DESCRIPTION, TAGS, COMMENTS, COLOR);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Value("${search.cache.enabled}")
+    private boolean enabled;
+    @Value("${search.cache.capacity}")
+    private int capacity;
+    @Value("${search.engine}")
+    private SearchEngine searchEngine;
+
+    private final MeterRegistry meterRegistry;
+
+    private final LinkedHashMap<Map<String, String>, List<Long>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentSize;
+    private long generation;
+
+    private Counter hits;
+    private Counter misses;
+
+    /**
+     * Registers the cache metrics.
+     */
+    @PostConstruct
+    public void init() {
+        hits = Counter.builder("search.cache.hits")
+                .description("Searches answered from the search result cache")
+                .register(meterRegistry);
+        misses = Counter.builder("search.cache.misses")
+                .description("Searches that had to query the database")
+                .register(meterRegistry);
+        Gauge.builder("search.cache.size", this, SearchResultCache::size)
+                .description("Number of searches currently cached")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Normalizes search criteria to the form used as cache key.
+     *
+     * @param searchCriteria The search parameters as received by the search.
+     * @return The known, non-blank criteria in a fixed order, with single spaces between the terms and case folded
+     * where the search ignores it.
+     */
+    public static Map<String, String> normalize(Map<String, String> searchCriteria) {
+        Map<String, String> key = new TreeMap<>();
+        for (String criterion : CRITERIA) {
+            String value = searchCriteria.get(criterion);
+            if (StringUtils.hasText(value)) {
+                String terms = WHITESPACE.matcher(value.trim()).replaceAll(" ");
+                key.put(criterion, CASE_SENSITIVE_CRITERIA.contains(criterion) ? terms : terms.toLowerCase());
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Returns the cached IDs of a search.
+     *
+     * @param key The normalized search criteria.
+     * @return The IDs of the matches in result order, or empty if the search is not cached.
+     */
+    public synchronized Optional<List<Long>> get(Map<String, String> key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        List<Long> ids = entries.get(key);
+        (ids != null ? hits : misses).increment();
+        return Optional.ofNullable(ids);
+    }
+
+    /**
+     * Returns the current generation, to be passed to {@link #put} with the result of a search started afterwards.
+     *
+     * @return A value that changes with every invalidation.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stores the IDs of a search and evicts the least recently used searches until the capacity is met again.
+     * The result is discarded if an invalidation happened since the given generation, as it may be outdated.
+     *
+     * @param key        The normalized search criteria.
+     * @param ids        The IDs of the matches in result order.
+     * @param generation The generation read before the search queried the database.
+     */
+    public synchronized void put(Map<String, String> key, List<Long> ids, long generation) {
+        if (!enabled || generation != this.generation || ids.size() + 1 > capacity) {
+            return;
+        }
+        List<Long> previous = entries.put(key, List.copyOf(ids));
+        if (previous != null) {
+            currentSize -= previous.size() + 1;
+        }
+        currentSize += ids.size() + 1;
+
+        Iterator<List<Long>> iterator = entries.values().iterator();
+        while (currentSize > capacity && iterator.hasNext()) {
+            currentSize -= iterator.next().size() + 1;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Evicts the searches using a criterion, e.g. after a property it matches was changed.
+     *
+     * @param criterion The criterion key, one of {@link #DESCRIPTION}, {@link #TAGS}, {@link #COMMENTS} or
+     *                  {@link #COLOR}.
+     */
+    public void evictByCriterion(String criterion) {
+        evictAfterCommit("criterion " + criterion, (key, ids) -> key.containsKey(criterion));
+    }
+
+    /**
+     * Evicts the searches using a criterion that matched the given entry, e.g. after a comment of it was deleted.
+     *
+     * @param criterion The criterion key.
+     * @param id        The ID of the DicomData entity that may no longer match.
+     */
+    public void evictByCriterion(String criterion, Long id) {
+        evictAfterCommit("criterion " + criterion + " matching " + id,
+                (key, ids) -> key.containsKey(criterion) && ids.contains(id));
+    }
+
+    /**
+     * Evicts the searches using a criterion that matched one of the given entries before they were changed, or whose
+     * term may match one of the values added to them, e.g. after tags were added to or replaced on the entries.
+     *
+     * @param criterion   The criterion key.
+     * @param ids         The IDs of the changed DicomData entities.
+     * @param addedValues The tag names or comment texts added to the entities.
+     */
+    public void evictByCriterion(String criterion, Collection<Long> ids, Collection<String> addedValues) {
+        Set<Long> changed = Set.copyOf(ids);
+        evictAfterCommit("criterion " + criterion + " on " + changed.size() + " changed entries",
+                (key, cachedIds) -> key.containsKey(criterion) && (cachedIds.stream().anyMatch(changed::contains)
+                        || !addedValues.isEmpty() && mayMatch(criterion, key.get(criterion), addedValues)));
+    }
+
+    /**
+     * Evicts the searches that matched the given entry, e.g. after it was deleted.
+     *
+     * @param id The ID of the DicomData entity.
+     */
+    public void evictContaining(Long id) {
+        evictAfterCommit("searches matching " + id, (key, ids) -> ids.contains(id));
+    }
+
+    /**
+     * Evicts all searches, e.g. after new entries were imported.
+     */
+    public void clear() {
+        evictAfterCommit("all searches", (key, ids) -> true);
+    }
+
+    /**
+     * @return The number of searches currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Tells whether the term of a cached search may match one of the values added to an entry. Only the exact tag
+     * match and the substring match of the LIKE engine are decided here, any other match is assumed possible.
+     */
+    private boolean mayMatch(String criterion, String term, Collection<String> addedValues) {
+        if (TAGS.equals(criterion) && searchEngine != SearchEngine.FUZZY) {
+            return Arrays.stream(term.split(" ")).anyMatch(addedValues::contains);
+        }
+        if (COMMENTS.equals(criterion) && searchEngine == SearchEngine.LIKE) {
+            return addedValues.stream().anyMatch(value -> value.toLowerCase().contains(term));
+        }
+        return true;
+    }
+
+    private void evictAfterCommit(String description, BiPredicate<Map<String, String>, List<Long>> predicate) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // A rolled back change leaves the cached results valid
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(description, predicate);
+                }
+            });
+        } else {
+            evict(description, predicate);
+        }
+    }
+
+    private synchronized void evict(String description, BiPredicate<Map<String, String>, List<Long>> predicate) {
+        generation++;
+        int evicted = 0;
+        Iterator<Map.Entry<Map<String, String>, List<Long>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Map<String, String>, List<Long>> entry = iterator.next();
+            if (predicate.test(entry.getKey(), entry.getValue())) {
+                currentSize -= entry.getValue().size() + 1;
+                iterator.remove();
+                evicted++;
+            }
+        }
+        log.debug("Evicted {} cached searches for {}.", evicted, description);
+    }
+}
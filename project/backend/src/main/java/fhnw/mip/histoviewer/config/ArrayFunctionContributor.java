@@ -0,0 +1,36 @@
+package fhnw.mip.histoviewer.config;
+
+import org.hibernate.boot.model.FunctionContributions;
+import org.hibernate.boot.model.FunctionContributor;
+import org.hibernate.type.BasicType;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Registers a membership test against a PostgreSQL array as HQL function, so a specification can restrict a query
+ * to any number of IDs with a single bind parameter. An {@code in} list binds one parameter per ID and fails beyond
+ * the 32767 parameters a PostgreSQL statement can take.
+ * <p>
+ * Registered through {@code META-INF/services/org.hibernate.boot.model.FunctionContributor}.
+ * </p>
+ */
+public class ArrayFunctionContributor implements FunctionContributor {
+
+    /**
+     * {@code id_in_array(id, '{1,2,3}')}: true if the ID is an element of the array, given in PostgreSQL array
+     * literal syntax.
+     */
+    public static final String ID_IN_ARRAY = "id_in_array";
+
+    @Override
+    public void contributeFunctions(FunctionContributions functionContributions) {
+        BasicType<Boolean> booleanType = functionContributions.getTypeConfiguration()
+                .getBasicTypeRegistry()
+                .resolve(StandardBasicTypes.BOOLEAN);
+
+        functionContributions.getFunctionRegistry()
+                .patternDescriptorBuilder(ID_IN_ARRAY, "(?1 = any(cast(?2 as bigint[])))")
+                .setExactArgumentCount(2)
+                .setInvariantType(booleanType)
+                .register();
+    }
+}
@@ -0,0 +1,76 @@
+package fhnw.mip.histoviewer.config;
+
+import fhnw.mip.histoviewer.service.PreviewWarmUpHealthIndicator;
+import org.springframework.boot.actuate.endpoint.SecurityContext;
+import org.springframework.boot.actuate.health.AdditionalHealthEndpointPath;
+import org.springframework.boot.actuate.health.HealthEndpointGroup;
+import org.springframework.boot.actuate.health.HealthEndpointGroups;
+import org.springframework.boot.actuate.health.HealthEndpointGroupsPostProcessor;
+import org.springframework.boot.actuate.health.HttpCodeStatusMapper;
+import org.springframework.boot.actuate.health.StatusAggregator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the preview warm-up out of the overall health at {@code /actuator/health}.
+ * <p>
+ * The warm-up indicator is out of service until the preview cache is filled, which only concerns readiness: the
+ * instance is healthy meanwhile and must not be reported as unavailable. Spring Boot adds every indicator to the
+ * primary health group, so the indicator is removed from it here and only kept in the groups that include it
+ * explicitly, i.e. {@code management.endpoint.health.group.readiness.include}.
+ * </p>
+ */
+@Configuration
+public class HealthGroupConfig {
+
+    @Bean
+    public HealthEndpointGroupsPostProcessor previewWarmUpHealthGroupsPostProcessor() {
+        return groups -> {
+            Map<String, HealthEndpointGroup> named = new LinkedHashMap<>();
+            for (String name : groups.getNames()) {
+                named.put(name, groups.get(name));
+            }
+            return HealthEndpointGroups.of(new ExcludingGroup(groups.getPrimary(), PreviewWarmUpHealthIndicator.NAME),
+                    named);
+        };
+    }
+
+    /**
+     * Health group that leaves out one contributor and otherwise behaves like the group it wraps.
+     */
+    private record ExcludingGroup(HealthEndpointGroup delegate, String excluded) implements HealthEndpointGroup {
+
+        @Override
+        public boolean isMember(String name) {
+            return !excluded.equals(name) && delegate.isMember(name);
+        }
+
+        @Override
+        public boolean showComponents(SecurityContext securityContext) {
+            return delegate.showComponents(securityContext);
+        }
+
+        @Override
+        public boolean showDetails(SecurityContext securityContext) {
+            return delegate.showDetails(securityContext);
+        }
+
+        @Override
+        public StatusAggregator getStatusAggregator() {
+            return delegate.getStatusAggregator();
+        }
+
+        @Override
+        public HttpCodeStatusMapper getHttpCodeStatusMapper() {
+            return delegate.getHttpCodeStatusMapper();
+        }
+
+        @Override
+        public AdditionalHealthEndpointPath getAdditionalPath() {
+            return delegate.getAdditionalPath();
+        }
+    }
+}
@@ -1,14 +1,102 @@
 package fhnw.mip.histoviewer.config;
 
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import lombok.extern.log4j.Log4j2;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Configures the HTTP client used to talk to Orthanc.
+ * <p>
+ * By default requests go through a pooled Apache HttpClient, whose pool usage is exported as
+ * {@code httpcomponents.httpclient.pool.*} metrics. With {@code orthanc.http.http2-enabled} the JDK client is used
+ * instead, which multiplexes requests over HTTP/2 connections it manages itself; the pool and its metrics are not
+ * created then.
+ * The template is built by the {@link RestTemplateBuilder}, so every request is timed as {@code http.client.requests}.
+ * </p>
+ */
+@Log4j2
 @Configuration
 public class RestTemplateConfig {
 
+    @Value("${orthanc.http.max-connections}")
+    private int maxConnections;
+    @Value("${orthanc.http.connect-timeout}")
+    private Duration connectTimeout;
+    @Value("${orthanc.http.read-timeout}")
+    private Duration readTimeout;
+    @Value("${orthanc.http.connection-request-timeout}")
+    private Duration connectionRequestTimeout;
+    @Value("${orthanc.http.idle-timeout}")
+    private Duration idleTimeout;
+
+    @Bean
+    @ConditionalOnProperty(name = "orthanc.http.http2-enabled", havingValue = "false")
+    public PoolingHttpClientConnectionManager orthancConnectionManager() {
+        // All requests go to the single Orthanc host, so one route may use the whole pool
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(readTimeout))
+                        .build())
+                .build();
+    }
+
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    @ConditionalOnProperty(name = "orthanc.http.http2-enabled", havingValue = "false")
+    public MeterBinder orthancConnectionPoolMetrics(PoolingHttpClientConnectionManager orthancConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(orthancConnectionManager, "orthanc");
+    }
+
+    @Bean
+    public RestTemplate restTemplate(RestTemplateBuilder builder,
+                                     Optional<PoolingHttpClientConnectionManager> orthancConnectionManager) {
+        return builder.requestFactory(() -> requestFactory(orthancConnectionManager)).build();
+    }
+
+    private ClientHttpRequestFactory requestFactory(Optional<PoolingHttpClientConnectionManager> connectionManager) {
+        if (connectionManager.isEmpty()) {
+            log.info("Using HTTP/2 client for Orthanc");
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(connectTimeout)
+                    .build();
+            JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient);
+            factory.setReadTimeout(readTimeout);
+            return factory;
+        }
+
+        log.info("Using pooled HTTP client for Orthanc with {} connections", maxConnections);
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager.get())
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(connectionRequestTimeout))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleTimeout))
+                .build();
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
     }
 }
@@ -0,0 +1,44 @@
+package fhnw.mip.histoviewer.config;
+
+import org.hibernate.boot.model.FunctionContributions;
+import org.hibernate.boot.model.FunctionContributor;
+import org.hibernate.type.BasicType;
+import org.hibernate.type.StandardBasicTypes;
+
+/**
+ * Registers the similarity operators of the PostgreSQL {@code pg_trgm} extension as HQL functions, so they can be
+ * used in specifications. Rendered as operators rather than as {@code similarity()} calls, the conditions can use
+ * the trigram GIN indexes created by {@code db/search-fuzzy.sql}.
+ * <p>
+ * The thresholds of both operators are set per connection, see {@code search.fuzzy.*}.
+ * Registered through {@code META-INF/services/org.hibernate.boot.model.FunctionContributor}.
+ * </p>
+ */
+public class TrigramFunctionContributor implements FunctionContributor {
+
+    /** {@code trgm_similar(a, b)}: true if the similarity of a and b reaches {@code pg_trgm.similarity_threshold}. */
+    public static final String SIMILAR = "trgm_similar";
+    /**
+     * {@code trgm_word_similar(term, text)}: true if the term is similar to a part of the text, i.e. the word
+     * similarity reaches {@code pg_trgm.word_similarity_threshold}.
+     */
+    public static final String WORD_SIMILAR = "trgm_word_similar";
+
+    @Override
+    public void contributeFunctions(FunctionContributions functionContributions) {
+        BasicType<Boolean> booleanType = functionContributions.getTypeConfiguration()
+                .getBasicTypeRegistry()
+                .resolve(StandardBasicTypes.BOOLEAN);
+
+        functionContributions.getFunctionRegistry()
+                .patternDescriptorBuilder(SIMILAR, "(?1 % ?2)")
+                .setExactArgumentCount(2)
+                .setInvariantType(booleanType)
+                .register();
+        functionContributions.getFunctionRegistry()
+                .patternDescriptorBuilder(WORD_SIMILAR, "(?1 <% ?2)")
+                .setExactArgumentCount(2)
+                .setInvariantType(booleanType)
+                .register();
+    }
+}
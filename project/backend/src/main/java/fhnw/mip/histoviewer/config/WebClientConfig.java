@@ -0,0 +1,70 @@
+package fhnw.mip.histoviewer.config;
+
+import io.netty.channel.ChannelOption;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/**
+ * Configures the non-blocking HTTP client used to talk to Orthanc, if {@code orthanc.reactive.enabled} is set.
+ * <p>
+ * Requests run on the Reactor Netty event loop, so no thread is held while they are in flight. Requests first take a
+ * slot of the bulkhead shared with the blocking client, see {@link fhnw.mip.histoviewer.service.OrthancCircuitBreaker},
+ * which caps the concurrency towards Orthanc for both clients together. The connection pool keeps at most
+ * {@code orthanc.reactive.max-concurrent-requests} connections, at most {@code orthanc.reactive.max-pending-requests}
+ * more requests wait for a connection and any further request fails immediately. Pool usage is exported as {@code reactor.netty.connection.provider.*}
+ * metrics. The client is built by the {@link WebClient.Builder}, so every request is timed as
+ * {@code http.client.requests}.
+ * </p>
+ */
+@Log4j2
+@Configuration
+@ConditionalOnProperty(name = "orthanc.reactive.enabled", havingValue = "true")
+public class WebClientConfig {
+
+    @Value("${orthanc.url}")
+    private String orthancUrl;
+    @Value("${orthanc.reactive.max-concurrent-requests}")
+    private int maxConcurrentRequests;
+    @Value("${orthanc.reactive.max-pending-requests}")
+    private int maxPendingRequests;
+    @Value("${orthanc.http.connect-timeout}")
+    private Duration connectTimeout;
+    @Value("${orthanc.http.read-timeout}")
+    private Duration readTimeout;
+    @Value("${orthanc.http.connection-request-timeout}")
+    private Duration connectionRequestTimeout;
+    @Value("${orthanc.http.idle-timeout}")
+    private Duration idleTimeout;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider orthancConnectionProvider() {
+        return ConnectionProvider.builder("orthanc")
+                .maxConnections(maxConcurrentRequests)
+                .pendingAcquireMaxCount(maxPendingRequests)
+                .pendingAcquireTimeout(connectionRequestTimeout)
+                .maxIdleTime(idleTimeout)
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public WebClient orthancWebClient(WebClient.Builder builder, ConnectionProvider orthancConnectionProvider) {
+        log.info("Using reactive HTTP client for Orthanc with {} connections", maxConcurrentRequests);
+        HttpClient httpClient = HttpClient.create(orthancConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Math.toIntExact(connectTimeout.toMillis()))
+                .responseTimeout(readTimeout);
+        return builder
+                .baseUrl(orthancUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
@@ -1,5 +1,7 @@
 package fhnw.mip.histoviewer.controller;
 
+import fhnw.mip.histoviewer.dto.ImageSummary;
+import fhnw.mip.histoviewer.dto.SearchPage;
 import fhnw.mip.histoviewer.model.DicomData;
 import fhnw.mip.histoviewer.model.Tag;
 import fhnw.mip.histoviewer.service.DatabaseService;
@@ -29,13 +31,13 @@ public class DatabaseController {
     private final TagService tagService;
 
     /**
-     * Retrieves all image entities.
-     * @return A list of all DicomData objects.
+     * Retrieves the gallery columns of all image entities.
+     * @return A list of the summaries of all image entities.
      */
     @GetMapping("/allImageEntities")
-    public ResponseEntity<List<DicomData>> getAllImageEntities() {
+    public ResponseEntity<List<ImageSummary>> getAllImageEntities() {
         log.debug("Fetching all image entities");
-        List<DicomData> images = databaseService.findAll();
+        List<ImageSummary> images = databaseService.findAllSummaries();
         return images.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(images);
     }
 
@@ -82,17 +84,35 @@ public class DatabaseController {
      * Searches for image entities based on criteria.
      * @param searchCriteria The search criteria.
      * @param username The username of the requester.
-     * @return A list of matching DicomData objects.
+     * @return A list of the summaries of the matching image entities.
      */
     @PostMapping("/search")
-    public ResponseEntity<List<DicomData>> findImageIdByCriteria(
+    public ResponseEntity<List<ImageSummary>> findImageIdByCriteria(
             @Valid @RequestBody Map<String, String> searchCriteria,
             @RequestParam @NotBlank String username) {
         log.info("Searching images by criteria: {} for user: {}", searchCriteria, username);
-        List<DicomData> searchResult = databaseService.findUidByCriteria(searchCriteria, username);
+        List<ImageSummary> searchResult = databaseService.findUidByCriteria(searchCriteria, username);
         return searchResult.isEmpty() ? ResponseEntity.noContent().build() : ResponseEntity.ok(searchResult);
     }
 
+    /**
+     * Searches for image entities based on criteria, one page at a time.
+     * @param searchCriteria The search criteria.
+     * @param username The username of the requester.
+     * @param limit The maximum number of entities on the page.
+     * @param after The cursor of the previous page, or none for the first page.
+     * @return The page of summaries of the matching image entities, the cursor of the next page and the total.
+     */
+    @PostMapping("/search/page")
+    public ResponseEntity<SearchPage<ImageSummary>> findImagePageByCriteria(
+            @Valid @RequestBody Map<String, String> searchCriteria,
+            @RequestParam @NotBlank String username,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String after) {
+        log.info("Searching image page by criteria: {} after: {} for user: {}", searchCriteria, after, username);
+        return ResponseEntity.ok(databaseService.findPageByCriteria(searchCriteria, after, limit, username));
+    }
+
     /**
      * Deletes a comment by ID.
      * @param commentId The ID of the comment to delete.
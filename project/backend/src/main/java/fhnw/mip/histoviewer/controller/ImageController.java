@@ -1,21 +1,52 @@
 package fhnw.mip.histoviewer.controller;
 
+import fhnw.mip.histoviewer.cache.ImageValidator;
+import fhnw.mip.histoviewer.service.ImageFormat;
 import fhnw.mip.histoviewer.service.ImageService;
+import fhnw.mip.histoviewer.service.ImageVariantService;
+import fhnw.mip.histoviewer.service.ThumbnailService;
+import fhnw.mip.histoviewer.service.UserActivityService;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Controller class for handling image-related API requests.
@@ -27,49 +58,324 @@ import java.time.format.DateTimeParseException;
 @RequestMapping("/api")
 public class ImageController {
 
+    /** Content type of the length-prefixed frame stream returned by {@link #previewImages(List, Integer)}. */
+    public static final MediaType PREVIEW_BATCH_MEDIA_TYPE = MediaType.parseMediaType("application/vnd.histoviewer.preview-batch");
+    private static final String IMAGE_FORMAT_PATTERN = "(?i)jpe?g|png";
+
     @Value("${image.cache.duration}")
     private String imageCacheDuration;
+    @Value("${image.streaming.enabled}")
+    private boolean streamingEnabled;
+    @Value("${image.preview.batch.max-size}")
+    private int previewBatchMaxSize;
 
     private final ImageService imageService;
+    private final ThumbnailService thumbnailService;
+    private final ImageVariantService imageVariantService;
+    private final UserActivityService userActivityService;
 
     /**
      * Retrieves the detailed view of an image.
+     * In streaming mode the image is written straight to the response instead of being returned as a byte array.
+     * Answers with {@code 304 Not Modified} if the client's If-None-Match or If-Modified-Since matches the cached image.
+     * Range requests are answered with {@code 206 Partial Content} from the cached copy, so interrupted downloads
+     * can be resumed; If-Range is honored, so a client holding an outdated part receives the whole image.
+     * If a width, quality or format is given, the image is resized and re-encoded in-process instead.
      * @param imageUid The unique identifier of the image.
      * @param username The username requesting the image.
-     * @return The image data as a byte array.
+     * @param width The maximum width in pixels, or null for the native width.
+     * @param quality The JPEG quality in percent, or null for the default.
+     * @param format The target format ({@code jpeg} or {@code png}), or null to keep PNG.
+     * @param webRequest The current request, used to evaluate conditional headers.
+     * @param response The servlet response, written to directly in streaming mode.
+     * @return The image data, or null if the image was streamed or not modified.
+     * @throws IOException If streaming the image fails.
      */
     @GetMapping("/detailViewImage")
     public ResponseEntity<?> detailViewImage(
             @RequestParam("imageUid") @NotBlank String imageUid,
-            @RequestParam("username") @NotBlank String username) {
+            @RequestParam("username") @NotBlank String username,
+            @RequestParam(value = "w", required = false) @Positive Integer width,
+            @RequestParam(value = "q", required = false) @Min(1) @Max(100) Integer quality,
+            @RequestParam(value = "format", required = false) @Pattern(regexp = IMAGE_FORMAT_PATTERN) String format,
+            ServletWebRequest webRequest,
+            HttpServletResponse response) throws IOException {
         log.debug("Fetching detailed image view for UID: {} by user: {}", imageUid, username);
-        var imageToShow = imageService.getImageByUid(imageUid, username);
-        Duration cacheDuration = parseDuration(imageCacheDuration);
-
-        return ResponseEntity.ok()
-                .cacheControl(CacheControl.maxAge(cacheDuration))
-                .contentLength(imageToShow.length)
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(imageToShow);
+        if (width != null || quality != null || format != null) {
+            userActivityService.recordLastImage(username, imageUid);
+            return variantResponse(imageUid, ImageVariantService.Source.DETAIL, width, quality, format, webRequest);
+        }
+        Optional<ImageValidator> validator = imageService.getImageValidator(imageUid);
+        if (isNotModified(webRequest, validator)) {
+            log.debug("Detailed image for UID: {} not modified", imageUid);
+            userActivityService.recordLastImage(username, imageUid);
+            return null;
+        }
+        if (streamingEnabled && webRequest.getHeader(HttpHeaders.RANGE) == null) {
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            imageService.streamImageByUid(imageUid, username, (body, contentLength) ->
+                    writeImage(response, ImageService.DETAIL_MEDIA_TYPE, body, contentLength,
+                            () -> imageService.getImageValidator(imageUid)));
+            return null;
+        }
+        Resource imageToShow = imageService.getImageResource(imageUid, username);
+        Optional<ImageValidator> current = validator.isPresent() ? validator : imageService.getImageValidator(imageUid);
+        // Validators already known were set on the response by the conditional request check
+        Optional<ImageValidator> newValidator = validator.isPresent() ? Optional.empty() : current;
+        if (!isIfRangeSatisfied(webRequest, current)) {
+            log.debug("If-Range of detailed image for UID: {} is outdated, sending the whole image", imageUid);
+            // Byte array bodies are never split into ranges
+            return imageResponse(imageToShow.getContentAsByteArray(), MediaType.APPLICATION_OCTET_STREAM, newValidator);
+        }
+        return resourceResponse(imageToShow, newValidator);
     }
 
     /**
      * Retrieves the preview of an image.
+     * In streaming mode the image is written straight to the response instead of being returned as a byte array.
+     * Answers with {@code 304 Not Modified} if the client's If-None-Match or If-Modified-Since matches the cached image.
+     * If a size is given, the pre-generated thumbnail nearest to that size is served instead of the full preview.
+     * Otherwise, if a width, quality or format is given, the preview is resized and re-encoded in-process.
      * @param imageUid The unique identifier of the image.
-     * @return The image preview data as a byte array.
+     * @param size The requested length of the longer edge in pixels, or null for the full preview.
+     * @param width The maximum width in pixels, or null for the native width.
+     * @param quality The JPEG quality in percent, or null for the default.
+     * @param format The target format ({@code jpeg} or {@code png}), or null to keep JPEG.
+     * @param webRequest The current request, used to evaluate conditional headers.
+     * @param response The servlet response, written to directly in streaming mode.
+     * @return The image preview data as a byte array, or null if the image was streamed or not modified.
+     * @throws IOException If streaming the image fails.
      */
     @GetMapping("/previewImage")
     public ResponseEntity<?> previewImage(
-            @RequestParam("imageUid") @NotBlank String imageUid) {
+            @RequestParam("imageUid") @NotBlank String imageUid,
+            @RequestParam(value = "size", required = false) @Positive Integer size,
+            @RequestParam(value = "w", required = false) @Positive Integer width,
+            @RequestParam(value = "q", required = false) @Min(1) @Max(100) Integer quality,
+            @RequestParam(value = "format", required = false) @Pattern(regexp = IMAGE_FORMAT_PATTERN) String format,
+            ServletWebRequest webRequest,
+            HttpServletResponse response) throws IOException {
+        if (size != null) {
+            log.debug("Fetching {}px thumbnail for UID: {}", size, imageUid);
+            Optional<ImageValidator> validator = thumbnailService.getThumbnailValidator(imageUid, size);
+            if (isNotModified(webRequest, validator)) {
+                log.debug("Thumbnail for UID: {} not modified", imageUid);
+                return null;
+            }
+            var thumbnail = thumbnailService.getThumbnail(imageUid, size);
+            return imageResponse(thumbnail, MediaType.APPLICATION_OCTET_STREAM,
+                    validator.isPresent() ? Optional.empty() : thumbnailService.getThumbnailValidator(imageUid, size));
+        }
+
+        if (width != null || quality != null || format != null) {
+            return variantResponse(imageUid, ImageVariantService.Source.PREVIEW, width, quality, format, webRequest);
+        }
+
         log.debug("Fetching preview image for UID: {}", imageUid);
+        Optional<ImageValidator> validator = imageService.getPreviewValidator(imageUid);
+        if (isNotModified(webRequest, validator)) {
+            log.debug("Preview image for UID: {} not modified", imageUid);
+            return null;
+        }
+        if (streamingEnabled) {
+            imageService.streamPreviewImageByUid(imageUid, (body, contentLength) ->
+                    writeImage(response, ImageService.PREVIEW_MEDIA_TYPE, body, contentLength,
+                            () -> imageService.getPreviewValidator(imageUid)));
+            return null;
+        }
         var imageToShow = imageService.getPreviewImageByUid(imageUid);
-        Duration cacheDuration = parseDuration(imageCacheDuration);
+        // Validators already known were set on the response by the conditional request check
+        return imageResponse(imageToShow, MediaType.APPLICATION_OCTET_STREAM,
+                validator.isPresent() ? Optional.empty() : imageService.getPreviewValidator(imageUid));
+    }
+
+    /**
+     * Retrieves the previews of many images in one response, e.g. for all results of a search.
+     * <p>
+     * The body is a stream of frames, one per requested UID and in request order. All numbers are big-endian:
+     * a 2-byte length followed by the UTF-8 encoded UID, then a 4-byte length followed by the JPEG bytes.
+     * A length of -1 marks a preview that could not be retrieved; no image bytes follow in that case.
+     * With the reactive Orthanc client, missing previews are fetched concurrently while earlier frames are written.
+     * </p>
+     * @param imageUids The unique identifiers of the images.
+     * @param size The requested thumbnail size as for {@code /previewImage}, or null for the full previews.
+     * @return The stream of preview frames.
+     */
+    @PostMapping("/previewImages")
+    public ResponseEntity<StreamingResponseBody> previewImages(
+            @RequestBody @NotEmpty List<@NotBlank String> imageUids,
+            @RequestParam(value = "size", required = false) @Positive Integer size) {
+        log.debug("Fetching {} preview images", imageUids.size());
+        if (imageUids.size() > previewBatchMaxSize) {
+            log.warn("Rejecting preview batch of {} images, the maximum is {}", imageUids.size(), previewBatchMaxSize);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At most " + previewBatchMaxSize + " previews can be requested at once");
+        }
+
+        StreamingResponseBody body = outputStream -> {
+            DataOutputStream frames = new DataOutputStream(outputStream);
+            try (Stream<Optional<byte[]>> previews = size != null
+                    ? imageUids.stream().map(imageUid -> getBatchThumbnail(imageUid, size))
+                    : imageService.getPreviewImagesByUid(imageUids)) {
+                Iterator<Optional<byte[]>> iterator = previews.iterator();
+                for (String imageUid : imageUids) {
+                    byte[] uid = imageUid.getBytes(StandardCharsets.UTF_8);
+                    frames.writeShort(uid.length);
+                    frames.write(uid);
+                    Optional<byte[]> preview = iterator.next();
+                    if (preview.isPresent()) {
+                        frames.writeInt(preview.get().length);
+                        frames.write(preview.get());
+                    } else {
+                        frames.writeInt(-1);
+                    }
+                }
+            }
+            frames.flush();
+        };
 
         return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .contentType(PREVIEW_BATCH_MEDIA_TYPE)
+                .body(body);
+    }
+
+    /**
+     * Retrieves a thumbnail for a batch response, where a missing thumbnail is marked instead of failing the batch.
+     * Any failure of a single thumbnail only skips its frame, as the response is already being written.
+     * @param imageUid The unique identifier of the image.
+     * @param size The requested thumbnail size.
+     * @return The thumbnail, or empty if it could not be retrieved.
+     */
+    private Optional<byte[]> getBatchThumbnail(String imageUid, int size) {
+        try {
+            return Optional.of(thumbnailService.getThumbnail(imageUid, size));
+        } catch (RuntimeException e) {
+            log.warn("Skipping preview for UID: {} in batch", imageUid, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Evaluates the conditional headers of the request against the validators of the cached image.
+     * Sets the ETag and Last-Modified headers and, if the client's copy is current, the 304 status.
+     * @param webRequest The current request.
+     * @param validator The validators of the cached image, empty if the image is not cached.
+     * @return true if the client's copy is current and no body must be sent.
+     */
+    private boolean isNotModified(ServletWebRequest webRequest, Optional<ImageValidator> validator) {
+        return validator.isPresent() && webRequest.checkNotModified(
+                validator.get().etag(), validator.get().lastModified().toEpochMilli());
+    }
+
+    /**
+     * Serves a resized and re-encoded variant of an image, answering conditional requests like the originals.
+     * @param imageUid The unique identifier of the image.
+     * @param source The rendering the variant is derived from.
+     * @param width The requested width in pixels, or null for the native width.
+     * @param quality The requested JPEG quality in percent, or null for the default.
+     * @param format The requested format, or null for the format of the source.
+     * @param webRequest The current request, used to evaluate conditional headers.
+     * @return The variant, or null if it is not modified.
+     */
+    private ResponseEntity<byte[]> variantResponse(String imageUid, ImageVariantService.Source source, Integer width,
+                                                   Integer quality, String format, ServletWebRequest webRequest) {
+        ImageVariantService.Variant variant = imageVariantService.normalize(source, width, quality,
+                format != null ? ImageFormat.parse(format) : null);
+        Optional<ImageValidator> validator = imageVariantService.getVariantValidator(imageUid, source, variant);
+        if (isNotModified(webRequest, validator)) {
+            log.debug("{} variant {} for UID: {} not modified", source, variant, imageUid);
+            return null;
+        }
+        var image = imageVariantService.getVariant(imageUid, source, variant);
+        return imageResponse(image, variant.format().getMediaType(),
+                validator.isPresent() ? Optional.empty() : imageVariantService.getVariantValidator(imageUid, source, variant));
+    }
+
+    /**
+     * Checks whether the partial copy a client refers to with If-Range is still current.
+     * @param webRequest The current request.
+     * @param validator The validators of the cached image.
+     * @return true if there is no If-Range header or it matches the ETag or Last-Modified time of the image.
+     */
+    private boolean isIfRangeSatisfied(ServletWebRequest webRequest, Optional<ImageValidator> validator) {
+        String ifRange = webRequest.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (validator.isEmpty()) {
+            return false;
+        }
+        if (ifRange.startsWith("\"")) {
+            // If-Range requires a strong comparison, which our SHA-256 ETags support
+            return ifRange.equals(validator.get().etag());
+        }
+        try {
+            long ifRangeSeconds = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return ifRangeSeconds == validator.get().lastModified().getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Builds the response for an image that may be served partially.
+     * The content length is left to Spring, which answers Range requests with the requested regions.
+     * @param image The image data.
+     * @param validator Validators to add to the response, empty if there are none or they are already set.
+     * @return The response entity.
+     */
+    private ResponseEntity<Resource> resourceResponse(Resource image, Optional<ImageValidator> validator) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(parseDuration(imageCacheDuration)))
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM);
+        validator.ifPresent(v -> builder.eTag(v.etag()).lastModified(v.lastModified()));
+        return builder.body(image);
+    }
+
+    /**
+     * Builds the response for an image held in memory.
+     * @param image The image data.
+     * @param mediaType The content type of the image.
+     * @param validator Validators to add to the response, empty if there are none or they are already set.
+     * @return The response entity.
+     */
+    private ResponseEntity<byte[]> imageResponse(byte[] image, MediaType mediaType, Optional<ImageValidator> validator) {
+        Duration cacheDuration = parseDuration(imageCacheDuration);
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
                 .cacheControl(CacheControl.maxAge(cacheDuration))
-                .contentLength(imageToShow.length)
-                .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                .body(imageToShow);
+                .contentLength(image.length)
+                .contentType(mediaType);
+        validator.ifPresent(v -> builder.eTag(v.etag()).lastModified(v.lastModified()));
+        return builder.body(image);
+    }
+
+    /**
+     * Copies an image body to the servlet response with a bounded buffer,
+     * passing through its content type and length.
+     * @param response The servlet response to write to.
+     * @param mediaType The content type of the image.
+     * @param body The image body.
+     * @param contentLength The number of bytes in the body, or -1 if unknown.
+     * @param validator Looks up the validators of the image once it has been cached.
+     * @throws IOException If writing the response fails.
+     */
+    private void writeImage(HttpServletResponse response, MediaType mediaType, InputStream body, long contentLength,
+                            Supplier<Optional<ImageValidator>> validator) throws IOException {
+        response.setContentType(mediaType.toString());
+        if (contentLength >= 0) {
+            response.setContentLengthLong(contentLength);
+        }
+        response.setHeader(HttpHeaders.CACHE_CONTROL,
+                CacheControl.maxAge(parseDuration(imageCacheDuration)).getHeaderValue());
+        if (!response.containsHeader(HttpHeaders.ETAG)) {
+            validator.get().ifPresent(v -> {
+                response.setHeader(HttpHeaders.ETAG, v.etag());
+                response.setDateHeader(HttpHeaders.LAST_MODIFIED, v.lastModified().toEpochMilli());
+            });
+        }
+        StreamUtils.copy(body, response.getOutputStream());
     }
 
     /**
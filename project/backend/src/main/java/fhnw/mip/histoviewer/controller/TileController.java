@@ -0,0 +1,82 @@
+package fhnw.mip.histoviewer.controller;
+
+import fhnw.mip.histoviewer.service.TileService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Controller class serving detail images as Deep Zoom (DZI) tile pyramids.
+ * The layout follows the DZI convention, so viewers like OpenSeadragon can use
+ * {@code /api/tiles/{imageUid}/image.dzi} as tile source directly.
+ */
+@Log4j2
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/api/tiles")
+public class TileController {
+
+    @Value("${image.cache.duration}")
+    private String imageCacheDuration;
+
+    private final TileService tileService;
+
+    /**
+     * Retrieves the DZI descriptor of an image.
+     * @param imageUid The unique identifier of the image.
+     * @return The descriptor as XML.
+     */
+    @GetMapping(value = "/{imageUid}/image.dzi", produces = MediaType.APPLICATION_XML_VALUE)
+    public ResponseEntity<String> descriptor(@PathVariable String imageUid) {
+        log.debug("Fetching tile descriptor for UID: {}", imageUid);
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(parseDuration(imageCacheDuration)))
+                .body(tileService.getDescriptor(imageUid));
+    }
+
+    /**
+     * Retrieves a single tile of an image.
+     * @param imageUid The unique identifier of the image.
+     * @param level The pyramid level, 0 being a single pixel.
+     * @param column The tile column, counted from the left.
+     * @param row The tile row, counted from the top.
+     * @return The tile as JPEG.
+     */
+    @GetMapping(value = "/{imageUid}/image_files/{level}/{column:\\d+}_{row:\\d+}.jpg", produces = MediaType.IMAGE_JPEG_VALUE)
+    public ResponseEntity<byte[]> tile(
+            @PathVariable String imageUid,
+            @PathVariable int level,
+            @PathVariable int column,
+            @PathVariable int row) {
+        byte[] tile = tileService.getTile(imageUid, level, column, row);
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.maxAge(parseDuration(imageCacheDuration)))
+                .contentLength(tile.length)
+                .body(tile);
+    }
+
+    /**
+     * Parses the cache duration string to a Duration object.
+     * Defaults to 1 hour if the format is invalid.
+     * @param durationString The duration string from properties.
+     * @return A valid Duration object.
+     */
+    private Duration parseDuration(String durationString) {
+        try {
+            return Duration.parse(durationString);
+        } catch (DateTimeParseException e) {
+            log.error("Invalid duration format: {}. Defaulting to PT1H.", durationString);
+            return Duration.parse("PT1H"); // Default to 1 hour
+        }
+    }
+}
@@ -2,6 +2,7 @@ package fhnw.mip.histoviewer.controller;
 
 import fhnw.mip.histoviewer.model.User;
 import fhnw.mip.histoviewer.repository.UserRepository;
+import fhnw.mip.histoviewer.service.UserActivityService;
 import fhnw.mip.histoviewer.service.UserService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
@@ -24,6 +25,7 @@ public class UserController {
 
     private final UserService userService;
     private final UserRepository userRepository;
+    private final UserActivityService userActivityService;
 
     /**
      * Retrieves all users.
@@ -50,7 +52,8 @@ public class UserController {
             return ResponseEntity.status(HttpStatus.NOT_FOUND)
                     .body("User not found with username: " + username);
         }
-        return ResponseEntity.ok(user.getLastSearch());
+        // Activity not yet flushed to the database takes precedence
+        return ResponseEntity.ok(userActivityService.getPendingLastSearch(username).orElse(user.getLastSearch()));
     }
 
     /**
@@ -64,7 +67,8 @@ public class UserController {
         User user = userRepository.findUserByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found with username: " + username));
 
-        String lastImage = user.getLastImage();
+        // Activity not yet flushed to the database takes precedence
+        String lastImage = userActivityService.getPendingLastImage(username).orElse(user.getLastImage());
         if (lastImage == null || lastImage.isEmpty()) {
             log.warn("No last image found for user: {}", username);
             return ResponseEntity.status(404).body("User does not have a last image.");
@@ -129,6 +133,8 @@ public class UserController {
     @DeleteMapping("/allUsers")
     public ResponseEntity<Void> deleteAllUsers() {
         userRepository.deleteAll();
+        // Pending activity would otherwise create the users again
+        userActivityService.discardAllPending();
         log.info("All users deleted successfully.");
         return ResponseEntity.noContent().build(); // 204 No Content for successful deletion
     }
@@ -0,0 +1,18 @@
+package fhnw.mip.histoviewer.dto;
+
+import java.util.List;
+
+/**
+ * The columns of a DicomData entity shown in the gallery, without its comments.
+ * The full entity is served by the detail endpoint.
+ *
+ * @param uid           The unique ID of the image.
+ * @param src           The file name of the image.
+ * @param description   The image description.
+ * @param magnification The magnification level.
+ * @param primaryColor  The primary color of the image.
+ * @param tags          The names of the tags of the image.
+ */
+public record ImageSummary(String uid, String src, String description, String magnification, String primaryColor,
+                           List<String> tags) {
+}
@@ -0,0 +1,15 @@
+package fhnw.mip.histoviewer.dto;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated search.
+ *
+ * @param items      The matches on this page, in ascending ID order.
+ * @param nextCursor The cursor to pass as {@code after} to fetch the next page, or null if this is the last page.
+ * @param total      The number of matches of the whole search, counted up to {@code search.page.count-limit}.
+ * @param totalExact Whether {@code total} is exact; false if the search matches more than the count limit.
+ * @param <T>        The type of the matches.
+ */
+public record SearchPage<T>(List<T> items, String nextCursor, long total, boolean totalExact) {
+}
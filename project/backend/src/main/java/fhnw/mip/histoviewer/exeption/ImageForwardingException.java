@@ -0,0 +1,20 @@
+package fhnw.mip.histoviewer.exeption;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Exception thrown when an image body received from Orthanc cannot be forwarded, e.g. because the client
+ * disconnected or the disk cache could not be written. Orthanc itself answered properly, so the circuit breaker
+ * does not count it as a failure.
+ */
+public class ImageForwardingException extends UncheckedIOException {
+    /**
+     * Constructs a new ImageForwardingException with the specified detail message and cause.
+     * @param message The detail message.
+     * @param cause The failure of the receiver of the image body.
+     */
+    public ImageForwardingException(String message, IOException cause) {
+        super(message, cause);
+    }
+}
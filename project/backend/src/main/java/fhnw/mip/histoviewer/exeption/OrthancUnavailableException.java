@@ -0,0 +1,27 @@
+package fhnw.mip.histoviewer.exeption;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception thrown when Orthanc cannot be reached, fails, or is shielded by the open circuit breaker.
+ */
+@ResponseStatus(value= HttpStatus.SERVICE_UNAVAILABLE)
+public class OrthancUnavailableException extends RuntimeException{
+    /**
+     * Constructs a new OrthancUnavailableException with the specified detail message.
+     * @param message The detail message.
+     */
+    public OrthancUnavailableException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new OrthancUnavailableException with the specified detail message and cause.
+     * @param message The detail message.
+     * @param cause The cause of the exception.
+     */
+    public OrthancUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
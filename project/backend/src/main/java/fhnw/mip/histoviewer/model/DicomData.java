@@ -1,10 +1,13 @@
 package fhnw.mip.histoviewer.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import jakarta.xml.bind.annotation.XmlAccessType;
 import jakarta.xml.bind.annotation.XmlAccessorType;
 import lombok.*;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -38,11 +41,16 @@ public class DicomData {
     @Column(nullable = false, unique = true)
     private String uid; // Unique ID of the image
 
+    @JsonIgnore
+    @Column(nullable = true)
+    private String orthancInstanceId; // Orthanc ID of the instance, resolved from the UID
+
     @JsonIgnoreProperties // or is @JsonIgnore. Needs more testing.
     @Column(nullable = true)
     private String author; // Author of the image
 
     @OneToMany(mappedBy = "dicomData", cascade = CascadeType.ALL, orphanRemoval = true)
+    @Fetch(FetchMode.SUBSELECT) // Loads the comments of all entities of a query at once when the first is accessed
     @JsonIgnoreProperties("dicomData") // Prevents infinite recursion in serialization
     private List<Comment> comments = new ArrayList<>();
 
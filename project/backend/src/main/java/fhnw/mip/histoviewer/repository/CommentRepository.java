@@ -4,9 +4,13 @@ import fhnw.mip.histoviewer.model.Comment;
 import fhnw.mip.histoviewer.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
+
 /**
  * Repository interface for accessing Comments in the database.
  */
@@ -21,4 +25,25 @@ public interface CommentRepository extends JpaRepository<Comment, Long> {
     @Modifying
     @Transactional
     void deleteAllCommentsByUser(User user);
+
+    /**
+     * Finds the texts of all comments attached to a DicomData entity without loading the comments.
+     *
+     * @return a List containing the DicomData ID and text of every comment
+     */
+    @Query("select c.dicomData.id as id, c.text as text from Comment c where c.dicomData is not null")
+    List<IndexedText> findAllTexts();
+
+    /**
+     * Finds the DicomData entities with a comment matching a full-text query, using the German configuration.
+     * Requires the generated {@code search_vector} column created by {@code db/search-fulltext.sql}.
+     *
+     * @param query the query in web search syntax
+     * @return a List containing the DicomData ID and the rank of its best matching comment
+     */
+    @Query(value = "select c.dicom_data_id as id, cast(max(ts_rank(c.search_vector, q)) as double precision) as rank "
+            + "from comments c, websearch_to_tsquery('german', :query) q "
+            + "where c.search_vector @@ q and c.dicom_data_id is not null "
+            + "group by c.dicom_data_id", nativeQuery = true)
+    List<RankedId> rankByText(@Param("query") String query);
 }
@@ -1,9 +1,19 @@
 package fhnw.mip.histoviewer.repository;
 
 import fhnw.mip.histoviewer.model.DicomData;
+import fhnw.mip.histoviewer.model.Tag;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 /**
  * Repository interface for accessing Dicomdata in the database.
@@ -11,6 +21,20 @@ import org.springframework.stereotype.Repository;
 @Repository
 public interface DicomDataRepository extends JpaRepository<DicomData, Long>, JpaSpecificationExecutor<DicomData> {
 
+    String SUMMARY_QUERY = "select d.id as id, d.uid as uid, d.src as src, d.description as description, "
+            + "d.magnification as magnification, d.primaryColor as primaryColor, t.name as tagName "
+            + "from DicomData d left join d.tags t ";
+
+    /**
+     * Finds all DicomData entities with their tags in a single query.
+     * Their comments are loaded together in one further query on first access.
+     *
+     * @return a List containing all DicomData
+     */
+    @Override
+    @EntityGraph(attributePaths = "tags")
+    List<DicomData> findAll();
+
     /**
      * Finds a DicomData entity by its UID.
      *
@@ -19,6 +43,24 @@ public interface DicomDataRepository extends JpaRepository<DicomData, Long>, Jpa
      */
     DicomData findByUid(String uid);
 
+    /**
+     * Finds a DicomData entity by its UID with its tags in a single query, for serving the whole entity.
+     *
+     * @param uid the unique identifier of the DicomData
+     * @return the DicomData entity, or null if not found
+     */
+    @EntityGraph(attributePaths = "tags")
+    DicomData findWithTagsByUid(String uid);
+
+    /**
+     * Finds the DicomData entities that have at least one of the given tags, with all their tags.
+     *
+     * @param tags the tags to look for
+     * @return a List containing the matching DicomData, each once
+     */
+    @EntityGraph(attributePaths = "tags")
+    List<DicomData> findDistinctByTagsIn(Collection<Tag> tags);
+
     /**
      * Finds a DicomData entity by its source.
      *
@@ -27,4 +69,105 @@ public interface DicomDataRepository extends JpaRepository<DicomData, Long>, Jpa
      */
     DicomData findBySrc(String src);
 
+    /**
+     * Finds the UIDs of all DicomData entities without loading the entities.
+     *
+     * @return a List containing all UIDs
+     */
+    @Query("select d.uid from DicomData d order by d.id")
+    List<String> findAllUids();
+
+    /**
+     * Finds the gallery columns and tag names of all DicomData entities in a single query, without loading the
+     * entities. An entity has one row per tag, or a single row with a null tag name if it has none.
+     *
+     * @return a List containing the summary rows, ordered by ID
+     */
+    @Query(SUMMARY_QUERY + "order by d.id")
+    List<SummaryRow> findAllSummaryRows();
+
+    /**
+     * Finds the gallery columns and tag names of the given DicomData entities in a single query.
+     *
+     * @param ids the IDs of the DicomData
+     * @return a List containing the summary rows, ordered by ID
+     */
+    @Query(SUMMARY_QUERY + "where d.id in :ids order by d.id")
+    List<SummaryRow> findSummaryRowsByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Finds the descriptions of all DicomData entities without loading the entities.
+     *
+     * @return a List containing the ID and description of every DicomData
+     */
+    @Query("select d.id as id, d.description as text from DicomData d")
+    List<IndexedText> findAllDescriptions();
+
+    /**
+     * Finds the DicomData entities whose description matches a full-text query, using the German configuration.
+     * Requires the generated {@code search_vector} column created by {@code db/search-fulltext.sql}.
+     *
+     * @param query the query in web search syntax, e.g. {@code "Rückenmark or Katze"}
+     * @return a List containing the ID and rank of every matching DicomData
+     */
+    @Query(value = "select d.id as id, cast(ts_rank(d.search_vector, q) as double precision) as rank "
+            + "from dicom_data d, websearch_to_tsquery('german', :query) q "
+            + "where d.search_vector @@ q", nativeQuery = true)
+    List<RankedId> rankByDescription(@Param("query") String query);
+
+    /**
+     * Finds the Orthanc instance mapping of a DicomData entity by its UID.
+     *
+     * @param uid the unique identifier of the DicomData
+     * @return the mapping, or an empty Optional if no DicomData has this UID
+     */
+    Optional<InstanceMapping> findInstanceMappingByUid(String uid);
+
+    /**
+     * Finds the Orthanc instance mappings of all DicomData entities without loading the entities.
+     *
+     * @return a List containing all mappings
+     */
+    @Query("select d.uid as uid, d.orthancInstanceId as orthancInstanceId from DicomData d order by d.id")
+    List<InstanceMapping> findAllInstanceMappings();
+
+    /**
+     * Sets the Orthanc instance ID of a DicomData entity.
+     *
+     * @param uid        the unique identifier of the DicomData
+     * @param instanceId the Orthanc instance ID, or null to clear the mapping
+     * @return the number of updated entities
+     */
+    @Modifying
+    @Transactional
+    @Query("update DicomData d set d.orthancInstanceId = :instanceId where d.uid = :uid")
+    int updateOrthancInstanceId(@Param("uid") String uid, @Param("instanceId") String instanceId);
+
+    /**
+     * Projection of the UID of a DicomData entity and the ID of its Orthanc instance.
+     */
+    interface InstanceMapping {
+        String getUid();
+
+        String getOrthancInstanceId();
+    }
+
+    /**
+     * Projection of the gallery columns of a DicomData entity and the name of one of its tags.
+     */
+    interface SummaryRow {
+        Long getId();
+
+        String getUid();
+
+        String getSrc();
+
+        String getDescription();
+
+        String getMagnification();
+
+        String getPrimaryColor();
+
+        String getTagName();
+    }
 }
@@ -0,0 +1,10 @@
+package fhnw.mip.histoviewer.repository;
+
+/**
+ * Projection of a text together with the ID of the DicomData entity it belongs to, used to build the search index.
+ */
+public interface IndexedText {
+    Long getId();
+
+    String getText();
+}
@@ -0,0 +1,10 @@
+package fhnw.mip.histoviewer.repository;
+
+/**
+ * Projection of the ID of a matching DicomData entity and the relevance of the match, as computed by {@code ts_rank}.
+ */
+public interface RankedId {
+    Long getId();
+
+    Double getRank();
+}
@@ -3,6 +3,8 @@ package fhnw.mip.histoviewer.repository;
 import fhnw.mip.histoviewer.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -16,4 +18,12 @@ public interface UserRepository extends JpaRepository<User, Long> {
      * @return an Optional containing the User if found, or an empty Optional if not found
      */
     Optional<User> findUserByUsername(String username);
+
+    /**
+     * Finds all users with one of the given usernames.
+     *
+     * @param usernames the usernames of the users to search for
+     * @return a List containing the users found
+     */
+    List<User> findAllByUsernameIn(Collection<String> usernames);
 }
\ No newline at end of file
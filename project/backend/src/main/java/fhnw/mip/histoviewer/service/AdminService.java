@@ -17,17 +17,21 @@ public class AdminService {
     private final DatabaseService databaseService;
     private final UserRepository userRepository;
     private final XmlParseService xmlParseService;
+    private final SearchIndexService searchIndexService;
 
     /**
      * Constructor for {@code AdminService}.
      *
      * @param databaseService The service handling database operations.
      * @param userRepository The repository handling user operations.
+     * @param searchIndexService The index to rebuild after an import.
      */
-    public AdminService(DatabaseService databaseService, UserRepository userRepository, XmlParseService xmlParseService) {
+    public AdminService(DatabaseService databaseService, UserRepository userRepository, XmlParseService xmlParseService,
+                        SearchIndexService searchIndexService) {
         this.databaseService = databaseService;
         this.userRepository = userRepository;
         this.xmlParseService = xmlParseService;
+        this.searchIndexService = searchIndexService;
     }
 
     /**
@@ -67,6 +71,7 @@ public class AdminService {
             return "No file provided.";
         }
         xmlParseService.parseAndSaveXmlData(file);
+        searchIndexService.rebuild();
         log.info("Images imported successfully.");
         return "Image data imported successfully!";
     }
@@ -2,6 +2,7 @@ package fhnw.mip.histoviewer.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fhnw.mip.histoviewer.cache.SearchResultCache;
 import fhnw.mip.histoviewer.model.DicomData;
 import fhnw.mip.histoviewer.repository.DicomDataRepository;
 import lombok.extern.log4j.Log4j2;
@@ -43,17 +44,21 @@ public class ColorImportService {
 
     private final DicomDataRepository dicomDataRepository;
     private final ObjectMapper objectMapper;
+    private final SearchResultCache searchResultCache;
 
     /**
      * Constructor to initialize the ColorImportService.
      *
      * @param dicomDataRepository The repository used to access and update DICOM data.
      * @param objectMapper The ObjectMapper used for JSON processing.
+     * @param searchResultCache The cache of color searches to invalidate after an update.
      */
     @Autowired
-    public ColorImportService(DicomDataRepository dicomDataRepository, ObjectMapper objectMapper) {
+    public ColorImportService(DicomDataRepository dicomDataRepository, ObjectMapper objectMapper,
+                              SearchResultCache searchResultCache) {
         this.dicomDataRepository = dicomDataRepository;
         this.objectMapper = objectMapper;
+        this.searchResultCache = searchResultCache;
     }
 
     /**
@@ -87,6 +92,7 @@ public class ColorImportService {
                     log.warn("DicomData not found for src: {}", src);
                 }
             });
+            searchResultCache.evictByCriterion(SearchResultCache.COLOR);
         } catch (IOException e) {
             log.error("Error reading the JSON file: {}", e.getMessage(), e);
         } catch (Exception e) {
@@ -1,15 +1,24 @@
 package fhnw.mip.histoviewer.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fhnw.mip.histoviewer.cache.SearchResultCache;
+import fhnw.mip.histoviewer.dto.ImageSummary;
+import fhnw.mip.histoviewer.dto.SearchPage;
 import fhnw.mip.histoviewer.model.Comment;
 import fhnw.mip.histoviewer.model.DicomData;
 import fhnw.mip.histoviewer.model.Tag;
 import fhnw.mip.histoviewer.model.User;
 import fhnw.mip.histoviewer.repository.CommentRepository;
 import fhnw.mip.histoviewer.repository.DicomDataRepository;
+import fhnw.mip.histoviewer.repository.RankedId;
 import fhnw.mip.histoviewer.repository.TagRepository;
 import fhnw.mip.histoviewer.repository.UserRepository;
 import fhnw.mip.histoviewer.specifications.DicomEntitySpecification;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
@@ -20,9 +29,16 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
 /**
@@ -37,10 +53,26 @@ import java.util.Optional;
 @Service
 public class DatabaseService {
 
+    private static final int ID_CHUNK_SIZE = 1000;
+
     private final DicomDataRepository dicomDataRepository;
     private final CommentRepository commentRepository;
     private final TagRepository tagRepository;
     private final UserRepository userRepository;
+    private final UserActivityService userActivityService;
+    private final PreviewPrefetchService previewPrefetchService;
+    private final SearchIndexService searchIndexService;
+    private final SearchResultCache searchResultCache;
+    private final EntityManager entityManager;
+
+    @Value("${search.engine}")
+    private SearchEngine searchEngine;
+    @Value("${search.page.default-limit}")
+    private int defaultPageLimit;
+    @Value("${search.page.max-limit}")
+    private int maxPageLimit;
+    @Value("${search.page.count-limit}")
+    private int pageCountLimit;
 
     @Value("${dicom.json.filepath}")
     private String jsonFilePath;
@@ -61,7 +93,7 @@ public class DatabaseService {
      * @return The DICOM data entry matching the given UID, or null if not found.
      */
     public DicomData findByUid(String uid) {
-        return dicomDataRepository.findByUid(uid);
+        return dicomDataRepository.findWithTagsByUid(uid);
     }
 
     /**
@@ -96,6 +128,8 @@ public class DatabaseService {
 
         log.info("Found existing DICOM data for UID: {}", uid);
 
+        List<String> addedTags = new ArrayList<>();
+        List<String> addedComments = new ArrayList<>();
         updates.forEach((key, value) -> {
             switch (key) {
                 case "author":
@@ -129,6 +163,7 @@ public class DatabaseService {
                                 // Establish bidirectional relationships
                                 existingImage.getTags().add(tag);
                                 tag.getDicomData().add(existingImage);
+                                addedTags.add(tagName);
                             } else {
                                 log.error("Invalid tag name: {}", tagData.get("name"));
                                 throw new IllegalArgumentException("Tag name must be a string");
@@ -165,6 +200,7 @@ public class DatabaseService {
                                 comment.setUser(user);
 
                                 existingImage.getComments().add(comment);
+                                addedComments.add(comment.getText());
                                 log.info("Added comment for UID: {}", uid);
                             } else {
                                 log.error("Invalid comment text: {}", commentData.get("text"));
@@ -185,6 +221,14 @@ public class DatabaseService {
 
         log.info("Saving updated DICOM data for UID: {}", uid);
         DicomData updatedImage = dicomDataRepository.save(existingImage);
+        searchIndexService.index(updatedImage);
+        List<Long> changedIds = List.of(existingImage.getId());
+        if (!addedTags.isEmpty()) {
+            searchResultCache.evictByCriterion(SearchResultCache.TAGS, changedIds, addedTags);
+        }
+        if (!addedComments.isEmpty()) {
+            searchResultCache.evictByCriterion(SearchResultCache.COMMENTS, changedIds, addedComments);
+        }
 
         log.info("Successfully updated DICOM data for UID: {}", uid);
         return updatedImage;
@@ -206,6 +250,8 @@ public class DatabaseService {
 
         if (dicomData.isPresent()) {
             dicomDataRepository.deleteById(id);
+            searchIndexService.remove(id);
+            searchResultCache.evictContaining(id);
             return true; // Return true if the entity was found and deleted
         }
         log.warn("DicomData entity with ID {} not found. Deletion skipped.", id);
@@ -218,46 +264,182 @@ public class DatabaseService {
     public void deleteAllImageEntities() {
         log.info("Deleting all DicomData entities...");
         dicomDataRepository.deleteAll();
+        searchIndexService.clear();
+        searchResultCache.clear();
         log.info("All DicomData entities have been deleted successfully.");
     }
 
     /**
-     * Finds DicomData entities based on search criteria and updates the user's last search history.
+     * Finds the gallery columns of all DICOM data entries, without loading the entities.
+     *
+     * @return A list of the summaries of all DICOM data entries, ordered by ID.
+     */
+    public List<ImageSummary> findAllSummaries() {
+        return new ArrayList<>(toSummaries(dicomDataRepository.findAllSummaryRows()).values());
+    }
+
+    /**
+     * Finds DicomData entities based on search criteria and records the user's last search history.
+     * The search history is written to the database asynchronously by the {@link UserActivityService}.
+     * Description and comment terms are resolved by the engine configured in {@code search.engine}.
+     * With the full-text engine, the results are ordered by their rank, best match first.
+     * The IDs of the matches are cached by the {@link SearchResultCache} under the normalized criteria, so repeated
+     * searches only load the summaries.
      *
      * @param searchCriteria The search parameters as a key-value map.
      * @param username       The username of the user performing the search.
-     * @return A list of matching DicomData entities.
+     * @return A list of the summaries of the matching DicomData entities.
      */
-    public List<DicomData> findUidByCriteria(Map<String, String> searchCriteria, String username) {
+    public List<ImageSummary> findUidByCriteria(Map<String, String> searchCriteria, String username) {
         log.info("Search Criteria: {}", searchCriteria);
 
-        // Get the current user from the username, or create a new user if not found
-        User currentUser = userRepository.findUserByUsername(username)
-                .orElseGet(() -> {
-                    // Create a new user if the user doesn't exist
-                    User newUser = new User();
-                    newUser.setUsername(username);
-                    newUser.setLastSearch(convertSearchCriteriaToJson(searchCriteria)); // Initialize with empty or default value
-                    newUser.setLastImage(""); // Initialize with empty or default value if required
-                    userRepository.save(newUser); // Save the new user
-                    return newUser; // Return the newly created user
-                });
-
-        // Update the user's last search
-        currentUser.setLastSearch(convertSearchCriteriaToJson(searchCriteria));  // Convert map to string for storage
-        currentUser.setLastImage("");
-        userRepository.save(currentUser);  // Save the user with updated search criteria
+        // Record the user's last search, which also resets the last image
+        userActivityService.recordLastSearch(username, convertSearchCriteriaToJson(searchCriteria));
+
+        List<ImageSummary> result = findSummariesByIdsInOrder(findMatchingIds(searchCriteria));
+        // The client requests the previews of the first hits next; start fetching them right away
+        previewPrefetchService.prefetch(result.stream().map(ImageSummary::uid).toList());
+        return result;
+    }
+
+    /**
+     * Resolves the IDs of the matches of a search, from the cache if possible.
+     * The search runs on the normalized criteria, so its result holds for every search sharing the cache entry.
+     *
+     * @return The IDs, ordered by rank if the full-text engine ranks the matches and by ID otherwise.
+     */
+    private List<Long> findMatchingIds(Map<String, String> searchCriteria) {
+        Map<String, String> cacheKey = SearchResultCache.normalize(searchCriteria);
+        return searchResultCache.get(cacheKey).orElseGet(() -> {
+            long generation = searchResultCache.getGeneration();
+            Map<Long, Double> ranks = new HashMap<>();
+            List<Long> ids = findIds(searchSpecification(cacheKey, ranks), Integer.MAX_VALUE);
+            if (!ranks.isEmpty()) {
+                ids = ids.stream()
+                        .sorted(Comparator.comparingDouble((Long id) -> ranks.getOrDefault(id, 0.0)).reversed())
+                        .toList();
+            }
+            searchResultCache.put(cacheKey, ids, generation);
+            return ids;
+        });
+    }
+
+    /**
+     * Loads the summaries of the given DicomData entities in the order of the IDs.
+     * Entities deleted meanwhile are skipped.
+     */
+    private List<ImageSummary> findSummariesByIdsInOrder(List<Long> ids) {
+        Map<Long, ImageSummary> byId = new HashMap<>();
+        // Bounded chunks keep the number of bind parameters per statement within the database limit
+        for (int from = 0; from < ids.size(); from += ID_CHUNK_SIZE) {
+            List<Long> chunk = ids.subList(from, Math.min(from + ID_CHUNK_SIZE, ids.size()));
+            byId.putAll(toSummaries(dicomDataRepository.findSummaryRowsByIdIn(chunk)));
+        }
+        return ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * Groups summary rows, one per tag of an entity, into one summary per entity.
+     *
+     * @param rows The rows, with the rows of each entity next to each other.
+     * @return The summaries by entity ID, in the order of the rows.
+     */
+    private static Map<Long, ImageSummary> toSummaries(List<DicomDataRepository.SummaryRow> rows) {
+        Map<Long, ImageSummary> summaries = new LinkedHashMap<>();
+        DicomDataRepository.SummaryRow current = null;
+        List<String> tags = new ArrayList<>();
+        for (DicomDataRepository.SummaryRow row : rows) {
+            if (current != null && !current.getId().equals(row.getId())) {
+                summaries.put(current.getId(), toSummary(current, tags));
+                tags = new ArrayList<>();
+            }
+            current = row;
+            if (row.getTagName() != null) {
+                tags.add(row.getTagName());
+            }
+        }
+        if (current != null) {
+            summaries.put(current.getId(), toSummary(current, tags));
+        }
+        return summaries;
+    }
+
+    private static ImageSummary toSummary(DicomDataRepository.SummaryRow row, List<String> tags) {
+        return new ImageSummary(row.getUid(), row.getSrc(), row.getDescription(), row.getMagnification(),
+                row.getPrimaryColor(), tags);
+    }
+
+    /**
+     * Finds one page of the DicomData entities matching the search criteria, in ascending ID order.
+     * <p>
+     * Pages are selected by keyset: each page continues after the ID of the last entry of the previous one, so
+     * later pages cost as much as the first and entries do not shift between pages while data is added.
+     * The total is counted up to {@code search.page.count-limit} matches only.
+     * The user's last search is only recorded for the first page.
+     * </p>
+     *
+     * @param searchCriteria The search parameters as a key-value map.
+     * @param after          The cursor returned with the previous page, or null for the first page.
+     * @param limit          The maximum number of entries on the page, or null for {@code search.page.default-limit}.
+     *                       Larger values are capped at {@code search.page.max-limit}.
+     * @param username       The username of the user performing the search.
+     * @return The page of summaries of the matching DicomData entities.
+     * @throws ResponseStatusException If the cursor is invalid or the limit is not positive.
+     */
+    public SearchPage<ImageSummary> findPageByCriteria(Map<String, String> searchCriteria, String after,
+                                                       Integer limit, String username) {
+        log.info("Search Criteria: {}, after: {}, limit: {}", searchCriteria, after, limit);
+        if (limit != null && limit < 1) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Page limit must be positive");
+        }
+        int pageSize = limit == null ? defaultPageLimit : Math.min(limit, maxPageLimit);
+        Long afterId = after == null ? null : decodeCursor(after);
+
+        if (afterId == null) {
+            userActivityService.recordLastSearch(username, convertSearchCriteriaToJson(searchCriteria));
+        }
+
+        // Ranks only order the unpaginated search; pages are always ordered by ID
+        Specification<DicomData> spec = searchSpecification(searchCriteria, new HashMap<>());
 
+        // One entry more than requested tells whether there is a next page
+        List<Long> ids = findIds(spec.and(DicomEntitySpecification.hasIdGreaterThan(afterId)), pageSize + 1);
+        String nextCursor = null;
+        if (ids.size() > pageSize) {
+            ids = ids.subList(0, pageSize);
+            nextCursor = encodeCursor(ids.get(pageSize - 1));
+        }
+        List<ImageSummary> items = findSummariesByIdsInOrder(ids);
+
+        long total = findIds(spec, pageCountLimit + 1).size();
+        previewPrefetchService.prefetch(items.stream().map(ImageSummary::uid).toList());
+        return new SearchPage<>(items, nextCursor, Math.min(total, pageCountLimit), total <= pageCountLimit);
+    }
+
+    /**
+     * Builds the specification for the search criteria with the configured search engine.
+     *
+     * @param searchCriteria The search parameters as a key-value map.
+     * @param ranks          Receives the rank of each match if the full-text engine ranks the matches.
+     * @return The Specification matching all criteria.
+     */
+    private Specification<DicomData> searchSpecification(Map<String, String> searchCriteria, Map<Long, Double> ranks) {
         Specification<DicomData> spec = Specification.where(null);
 
         // Process description search
-        if (StringUtils.hasText(searchCriteria.get("descriptionSearchTerm"))) {
+        if (StringUtils.hasText(searchCriteria.get("descriptionSearchTerm"))
+                && searchEngine == SearchEngine.FULLTEXT) {
+            // Any of the terms may match, as with the other engines; matching more of them ranks higher
+            String query = String.join(" or ", searchCriteria.get("descriptionSearchTerm").trim().split("\\s+"));
+            log.info("Searching for description query: {}", query);
+            spec = spec.and(rankedSpecification(dicomDataRepository.rankByDescription(query), ranks));
+        } else if (StringUtils.hasText(searchCriteria.get("descriptionSearchTerm"))) {
             String[] searchTermList = searchCriteria.get("descriptionSearchTerm").split(" ");
 
             Specification<DicomData> descriptionSpec = Specification.where(null);
             for (String searchTerm : searchTermList) {
                 log.info("Searching for description term: {}", searchTerm);
-                descriptionSpec = descriptionSpec.or(DicomEntitySpecification.containsTermInDescription(searchTerm));
+                descriptionSpec = descriptionSpec.or(descriptionTermSpecification(searchTerm));
             }
             spec = spec.and(descriptionSpec);
         }
@@ -269,7 +451,9 @@ public class DatabaseService {
             Specification<DicomData> tagSpec = Specification.where(null);
             for (String tagTerm : tagSearchTerms) {
                 log.info("Filtering by tag: {}", tagTerm);
-                tagSpec = tagSpec.or(DicomEntitySpecification.hasTag(tagTerm));
+                tagSpec = tagSpec.or(searchEngine == SearchEngine.FUZZY
+                        ? DicomEntitySpecification.hasSimilarTag(tagTerm)
+                        : DicomEntitySpecification.hasTag(tagTerm));
 
             }
             spec = spec.and(tagSpec);
@@ -278,7 +462,9 @@ public class DatabaseService {
         // Process comments search
         if (StringUtils.hasText(searchCriteria.get("commentsSearchTerm"))) {
             log.info("Filtering by comment: {}", searchCriteria.get("commentsSearchTerm"));
-            spec = spec.and(DicomEntitySpecification.containsTermInComments(searchCriteria.get("commentsSearchTerm")));
+            spec = spec.and(searchEngine == SearchEngine.FULLTEXT
+                    ? rankedSpecification(commentRepository.rankByText(searchCriteria.get("commentsSearchTerm")), ranks)
+                    : commentsTermSpecification(searchCriteria.get("commentsSearchTerm")));
         }
 
         if (StringUtils.hasText(searchCriteria.get("colorSearchTerm"))) {
@@ -287,10 +473,86 @@ public class DatabaseService {
         }
 
         log.info("Specification built: {}", spec);
+        return spec;
+    }
+
+    /**
+     * Finds the IDs of the DicomData entities matching a specification, without loading the entities.
+     * Also serves as a cheap count, as the number of IDs read can be capped.
+     *
+     * @return At most {@code max} distinct IDs, in ascending order.
+     */
+    private List<Long> findIds(Specification<DicomData> spec, int max) {
+        CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = criteriaBuilder.createQuery(Long.class);
+        Root<DicomData> root = query.from(DicomData.class);
+        // Tag and comment joins yield one row per matching tag or comment
+        query.select(root.get("id")).distinct(true).orderBy(criteriaBuilder.asc(root.get("id")));
+        Predicate predicate = spec.toPredicate(root, query, criteriaBuilder);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        return entityManager.createQuery(query).setMaxResults(max).getResultList();
+    }
+
+    private static String encodeCursor(Long id) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Long decodeCursor(String cursor) {
+        try {
+            return Long.valueOf(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid search cursor: " + cursor);
+        }
+    }
 
-        return dicomDataRepository.findAll(spec);
+
+    /**
+     * Creates the specification for a description term with the configured search engine.
+     *
+     * @param searchTerm The term to search for.
+     * @return A Specification that matches DicomData whose description contains the term.
+     */
+    private Specification<DicomData> descriptionTermSpecification(String searchTerm) {
+        if (isIndexSearch(searchTerm)) {
+            return DicomEntitySpecification.hasIdIn(searchIndexService.findByDescription(searchTerm));
+        }
+        if (searchEngine == SearchEngine.FUZZY) {
+            return DicomEntitySpecification.similarToTermInDescription(searchTerm);
+        }
+        return DicomEntitySpecification.containsTermInDescription(searchTerm);
     }
 
+    /**
+     * Creates the specification for a comment term with the configured search engine.
+     *
+     * @param searchTerm The term to search for.
+     * @return A Specification that matches DicomData with comments containing the term.
+     */
+    private Specification<DicomData> commentsTermSpecification(String searchTerm) {
+        if (isIndexSearch(searchTerm)) {
+            return DicomEntitySpecification.hasIdIn(searchIndexService.findByComments(searchTerm));
+        }
+        return DicomEntitySpecification.containsTermInComments(searchTerm);
+    }
+
+    /**
+     * Restricts the search to the entities matched by a full-text query and adds their ranks to the given map.
+     *
+     * @param matches The IDs and ranks of the matching entities.
+     * @param ranks   The accumulated rank per entity ID.
+     * @return A Specification that matches the given entities.
+     */
+    private Specification<DicomData> rankedSpecification(List<RankedId> matches, Map<Long, Double> ranks) {
+        matches.forEach(match -> ranks.merge(match.getId(), match.getRank(), Double::sum));
+        return DicomEntitySpecification.hasIdIn(matches.stream().map(RankedId::getId).toList());
+    }
+
+    private boolean isIndexSearch(String searchTerm) {
+        // Empty terms keep the behavior of the LIKE engine, which ignores them
+        return searchEngine == SearchEngine.INDEX && searchIndexService.isReady() && StringUtils.hasText(searchTerm);
+    }
 
     /**
      * Converts search criteria map to a JSON string.
@@ -325,5 +587,10 @@ public class DatabaseService {
         }
 
         commentRepository.delete(comment); // Delete comment
+
+        if (dicomData != null) {
+            searchIndexService.index(dicomData);
+            searchResultCache.evictByCriterion(SearchResultCache.COMMENTS, dicomData.getId());
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package fhnw.mip.histoviewer.service;
+
+import org.springframework.http.MediaType;
+
+import java.util.Locale;
+
+/**
+ * Formats images can be re-encoded to in-process.
+ */
+public enum ImageFormat {
+    JPEG(MediaType.IMAGE_JPEG),
+    PNG(MediaType.IMAGE_PNG);
+
+    private final MediaType mediaType;
+
+    ImageFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    /**
+     * @return The content type of images in this format.
+     */
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /**
+     * Parses a format name as given in a query parameter, accepting "jpg" as alias for JPEG.
+     *
+     * @param name The format name, case-insensitive.
+     * @return The format.
+     * @throws IllegalArgumentException If the format is not supported.
+     */
+    public static ImageFormat parse(String name) {
+        String normalized = name.trim().toUpperCase(Locale.ROOT);
+        return "JPG".equals(normalized) ? JPEG : valueOf(normalized);
+    }
+}
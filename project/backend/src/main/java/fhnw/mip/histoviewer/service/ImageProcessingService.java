@@ -0,0 +1,196 @@
+package fhnw.mip.histoviewer.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+/**
+ * Service for decoding, scaling and encoding images in-process, e.g. to derive thumbnails from Orthanc previews.
+ */
+@Log4j2
+@Service
+public class ImageProcessingService {
+
+    /**
+     * Scales an image down so that its longer edge is at most the given size and encodes it as JPEG.
+     * Images that are already small enough are only re-encoded, never scaled up.
+     *
+     * @param source  The encoded source image, in any format ImageIO can read.
+     * @param maxEdge The maximum length of the longer edge in pixels.
+     * @param quality The JPEG quality between 0 and 1.
+     * @return The scaled image encoded as JPEG.
+     * @throws IllegalArgumentException If the source cannot be decoded.
+     */
+    public byte[] resizeToJpeg(byte[] source, int maxEdge, float quality) {
+        BufferedImage image = decode(source);
+        double scale = Math.min(1.0, (double) maxEdge / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        log.debug("Scaling image from {}x{} to {}x{}", image.getWidth(), image.getHeight(), width, height);
+        return encodeJpeg(scale(image, width, height), quality);
+    }
+
+    /**
+     * Scales an image down to the given width, keeping its aspect ratio, and encodes it in the given format.
+     * Images that are already narrow enough are only re-encoded, never scaled up.
+     *
+     * @param source  The encoded source image, in any format ImageIO can read.
+     * @param width   The maximum width in pixels, or null to keep the native width.
+     * @param format  The target format.
+     * @param quality The JPEG quality between 0 and 1, ignored for PNG.
+     * @return The scaled image encoded in the target format.
+     * @throws IllegalArgumentException If the source cannot be decoded.
+     */
+    public byte[] resize(byte[] source, Integer width, ImageFormat format, float quality) {
+        BufferedImage image = decode(source);
+        if (width != null && width < image.getWidth()) {
+            int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+            log.debug("Scaling image from {}x{} to {}x{}", image.getWidth(), image.getHeight(), width, height);
+            image = scale(image, width, height);
+        }
+        return switch (format) {
+            case JPEG -> encodeJpeg(image, quality, true);
+            case PNG -> encodePng(image);
+        };
+    }
+
+    /**
+     * Decodes an encoded image.
+     *
+     * @param source The encoded image.
+     * @return The decoded image.
+     * @throws IllegalArgumentException If the source cannot be decoded.
+     */
+    public BufferedImage decode(byte[] source) {
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(source));
+            if (image == null) {
+                throw new IllegalArgumentException("Unsupported image format");
+            }
+            return image;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Image cannot be decoded", e);
+        }
+    }
+
+    /**
+     * Reads the pixel dimensions of an encoded image from its header, without decoding the pixels.
+     *
+     * @param source The encoded image.
+     * @return The width and height of the image.
+     * @throws IllegalArgumentException If the source cannot be read.
+     */
+    public Dimension readDimensions(byte[] source) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(source))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IllegalArgumentException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Image header cannot be read", e);
+        }
+    }
+
+    /**
+     * Draws an image into a new RGB image of the given size with bicubic interpolation.
+     *
+     * @param image  The source image.
+     * @param width  The target width in pixels.
+     * @param height The target height in pixels.
+     * @return The scaled image.
+     */
+    public BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    /**
+     * Encodes an image as baseline JPEG.
+     *
+     * @param image   The image to encode.
+     * @param quality The JPEG quality between 0 and 1.
+     * @return The encoded image.
+     */
+    public byte[] encodeJpeg(BufferedImage image, float quality) {
+        return encodeJpeg(image, quality, false);
+    }
+
+    /**
+     * Encodes an image as JPEG. Progressive JPEGs show a coarse version of the whole image early while loading,
+     * which suits slow links.
+     *
+     * @param image       The image to encode.
+     * @param quality     The JPEG quality between 0 and 1.
+     * @param progressive Whether to encode progressively instead of baseline.
+     * @return The encoded image.
+     */
+    public byte[] encodeJpeg(BufferedImage image, float quality, boolean progressive) {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Image cannot be encoded as JPEG", e);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes an image as PNG.
+     *
+     * @param image The image to encode.
+     * @return The encoded image.
+     */
+    public byte[] encodePng(BufferedImage image) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (!ImageIO.write(image, "png", out)) {
+                throw new IllegalStateException("No PNG writer available");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Image cannot be encoded as PNG", e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,28 +1,56 @@
 package fhnw.mip.histoviewer.service;
 
-import fhnw.mip.histoviewer.model.User;
-import fhnw.mip.histoviewer.repository.UserRepository;
+import fhnw.mip.histoviewer.cache.ImageCacheService;
+import fhnw.mip.histoviewer.cache.ImageValidator;
+import fhnw.mip.histoviewer.exeption.OrthancUnavailableException;
+import fhnw.mip.histoviewer.service.OrthancClient.InstanceView;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
 import java.nio.file.InvalidPathException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 
 /**
  * Service class for handling image retrieval operations.
  * This service interacts with Orthanc for fetching images by UID and provides image preview functionality.
+ * Images are requested by Orthanc instance ID where known, see {@link OrthancInstanceService}.
+ * Fetched images are kept in the {@link ImageCacheService}, so repeated requests do not reach Orthanc.
+ * While Orthanc is unavailable, stale cached copies are served if there are any; otherwise an
+ * {@link OrthancUnavailableException} is thrown.
  */
 @Log4j2
 @RequiredArgsConstructor
 @Service
 public class ImageService {
-    @Value("${orthanc.url}")
-    private String ORTHANC_URL;
+    private static final String DETAIL_CACHE_PREFIX = "detail:";
+    private static final String PREVIEW_CACHE_PREFIX = "preview:";
 
-    private final RestTemplate restTemplate;
-    private final UserRepository userRepository;
+    /** Format Orthanc renders detail images in. */
+    public static final MediaType DETAIL_MEDIA_TYPE = MediaType.IMAGE_PNG;
+    /** Format Orthanc renders preview images in. */
+    public static final MediaType PREVIEW_MEDIA_TYPE = MediaType.IMAGE_JPEG;
+
+    @Value("${orthanc.reactive.enabled}")
+    private boolean reactiveEnabled;
+    @Value("${orthanc.reactive.batch-concurrency}")
+    private int batchConcurrency;
+
+    private final OrthancInstanceService orthancInstanceService;
+    private final UserActivityService userActivityService;
+    private final ImageCacheService imageCacheService;
 
     /**
      * Retrieves an image by its UID, updates the user's last image, and logs the request.
@@ -38,38 +66,120 @@ public class ImageService {
             throw new NullPointerException("imageUid is null");
         }
 
-        // Get the current user from the username, or create a new user if not found
-        User currentUser = userRepository.findUserByUsername(username)
-                .orElseGet(() -> {
-                    // Create a new user if the user doesn't exist
-                    User newUser = new User();
-                    newUser.setUsername(username);
-                    newUser.setLastSearch(""); // Initialize with empty or default value
-                    newUser.setLastImage(imageUid); // Initialize with empty or default value if required
-                    userRepository.save(newUser); // Save the new user
-                    return newUser; // Return the newly created user
-                });
-
-        // Update the user's lastImage field with the current imageId
-        currentUser.setLastImage(imageUid);
-
-        // Save the updated user back to the database
-        userRepository.save(currentUser);
-        userRepository.flush();
+        userActivityService.recordLastImage(username, imageUid);
 
         log.debug("Fetching image for UID: {} for user: {}", imageUid, username);
 
+        return getImageByUid(imageUid);
+    }
+
+    /**
+     * Retrieves an image by its UID without recording it as a user's last image, e.g. to derive tiles from it.
+     *
+     * @param imageUid The unique identifier (UID) of the image to retrieve.
+     * @return The image data as a byte array.
+     */
+    public byte[] getImageByUid(String imageUid) {
+        return imageCacheService.get(DETAIL_CACHE_PREFIX + imageUid, () -> {
+            try {
+                // Make the request to fetch the image from Orthanc and return the image bytes
+                return orthancInstanceService.fetchImage(imageUid, InstanceView.RENDERED, DETAIL_MEDIA_TYPE);
+            } catch (OrthancUnavailableException e) {
+                // Lets the cache fall back to a stale copy
+                throw e;
+            } catch (Exception e) {
+                log.error("Failed to fetch image for UID: {}", imageUid, e);
+                throw new InvalidPathException(imageUid, "Failed to retrieve image from Orthanc");
+            }
+        });
+    }
+
+    /**
+     * Retrieves an image by its UID as a resource that can be served partially, and updates the user's last image.
+     * If the disk cache holds the image, the resource reads the cached file or mapped region instead of copying
+     * it onto the heap.
+     *
+     * @param imageUid The unique identifier (UID) of the image to retrieve.
+     * @param username The username of the current user making the request.
+     * @return The image as a resource.
+     * @throws NullPointerException if the imageUid is null.
+     */
+    public Resource getImageResource(String imageUid, String username) {
+        if (imageUid == null) {
+            log.error("Image UID is null for user: {}", username);
+            throw new NullPointerException("imageUid is null");
+        }
+
+        userActivityService.recordLastImage(username, imageUid);
+
+        log.debug("Fetching image resource for UID: {} for user: {}", imageUid, username);
+
+        return imageCacheService.getResource(DETAIL_CACHE_PREFIX + imageUid)
+                .orElseGet(() -> new ByteArrayResource(getImageByUid(imageUid)));
+    }
+
+    /**
+     * Streams an image by its UID to the given consumer and updates the user's last image.
+     * The image is never held on the heap as a whole; it is piped from the cache or from Orthanc.
+     *
+     * @param imageUid The unique identifier (UID) of the image to retrieve.
+     * @param username The username of the current user making the request.
+     * @param consumer Receives the image body.
+     * @throws IOException If forwarding the image fails.
+     * @throws NullPointerException if the imageUid is null.
+     */
+    public void streamImageByUid(String imageUid, String username, ImageStreamConsumer consumer) throws IOException {
+        if (imageUid == null) {
+            log.error("Image UID is null for user: {}", username);
+            throw new NullPointerException("imageUid is null");
+        }
+
+        userActivityService.recordLastImage(username, imageUid);
+
+        log.debug("Streaming image for UID: {} for user: {}", imageUid, username);
+
         try {
-            // Make the request to fetch the image from Orthanc and return the image bytes
-            return restTemplate.getForObject(
-                    ORTHANC_URL + "/wado?requestType=WADO&contentType=application/dicom&objectUID=" +
-                            imageUid + "&contentType=image/png", byte[].class);
+            imageCacheService.stream(DETAIL_CACHE_PREFIX + imageUid,
+                    source -> orthancInstanceService.streamImage(imageUid, InstanceView.RENDERED, DETAIL_MEDIA_TYPE, source),
+                    consumer);
+        } catch (IOException | OrthancUnavailableException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("Failed to fetch image for UID: {} for user: {}", imageUid, username, e);
+            log.error("Failed to stream image for UID: {} for user: {}", imageUid, username, e);
             throw new InvalidPathException(imageUid, "Failed to retrieve image from Orthanc");
         }
     }
 
+    /**
+     * Returns the ETag and Last-Modified validators of a cached detail image without fetching it from Orthanc.
+     *
+     * @param imageUid The unique identifier (UID) of the image.
+     * @return The validators, or empty if the image is not cached.
+     */
+    public Optional<ImageValidator> getImageValidator(String imageUid) {
+        return imageCacheService.getValidator(DETAIL_CACHE_PREFIX + imageUid);
+    }
+
+    /**
+     * Returns the ETag and Last-Modified validators of a cached preview image without fetching it from Orthanc.
+     *
+     * @param imageUid The unique identifier (UID) of the image.
+     * @return The validators, or empty if the image is not cached.
+     */
+    public Optional<ImageValidator> getPreviewValidator(String imageUid) {
+        return imageCacheService.getValidator(PREVIEW_CACHE_PREFIX + imageUid);
+    }
+
+    /**
+     * Checks whether the preview of an image is cached, without fetching it.
+     *
+     * @param imageUid The unique identifier (UID) of the image.
+     * @return true if the preview is served from the cache.
+     */
+    public boolean isPreviewCached(String imageUid) {
+        return imageCacheService.contains(PREVIEW_CACHE_PREFIX + imageUid);
+    }
+
     /**
      * Retrieves a preview image by its UID.
      *
@@ -82,16 +192,106 @@ public class ImageService {
             log.error("Image UID is null");
             throw new NullPointerException("imageUid is null");
         }
-        try {
-            // Log the request for preview image fetch
-            log.debug("Fetching preview image for UID: {}", imageUid);
+        // Log the request for preview image fetch
+        log.debug("Fetching preview image for UID: {}", imageUid);
+
+        return imageCacheService.get(PREVIEW_CACHE_PREFIX + imageUid, () -> {
+            try {
+                // Make the request to fetch the preview image from Orthanc and return the image bytes
+                return orthancInstanceService.fetchImage(imageUid, InstanceView.PREVIEW, PREVIEW_MEDIA_TYPE);
+            } catch (OrthancUnavailableException e) {
+                // Lets the cache fall back to a stale copy
+                throw e;
+            } catch (Exception e) {
+                log.error("Failed to fetch preview image for UID: {}", imageUid, e);
+                throw new InvalidPathException(imageUid, "Failed to retrieve preview image from Orthanc");
+            }
+        });
+    }
+
+    /**
+     * Retrieves a preview image by its UID without holding a thread while it is fetched from Orthanc.
+     * Requires the reactive Orthanc client; without it the preview is fetched on the calling thread.
+     *
+     * @param imageUid The unique identifier (UID) of the image to retrieve.
+     * @return The preview image data, failing with an {@link InvalidPathException} or
+     * {@link OrthancUnavailableException} like {@link #getPreviewImageByUid(String)}.
+     */
+    public CompletableFuture<byte[]> getPreviewImageByUidAsync(String imageUid) {
+        log.debug("Fetching preview image asynchronously for UID: {}", imageUid);
 
-            // Make the request to fetch the preview image from Orthanc and return the image bytes
-            return restTemplate.getForObject(
-                    ORTHANC_URL + "/wado?requestType=WADO&contentType=application/dicom&objectUID=" +
-                            imageUid + "&contentType=image/jpeg", byte[].class);
+        return imageCacheService.getAsync(PREVIEW_CACHE_PREFIX + imageUid, () -> orthancInstanceService
+                .fetchImageAsync(imageUid, InstanceView.PREVIEW, PREVIEW_MEDIA_TYPE)
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                    if (cause instanceof OrthancUnavailableException unavailable) {
+                        // Lets the cache fall back to a stale copy
+                        throw unavailable;
+                    }
+                    log.error("Failed to fetch preview image for UID: {}", imageUid, cause);
+                    throw new InvalidPathException(imageUid, "Failed to retrieve preview image from Orthanc");
+                }));
+    }
+
+    /**
+     * Retrieves the previews of many images, e.g. for a batch request.
+     * <p>
+     * With the reactive Orthanc client, up to {@code orthanc.reactive.batch-concurrency} previews are fetched at the
+     * same time without holding a thread each; otherwise they are fetched one after another. Previews are returned
+     * in request order and only fetched as fast as the caller consumes them. The stream must be closed, so pending
+     * fetches are cancelled if the caller stops early.
+     * </p>
+     *
+     * @param imageUids The unique identifiers (UIDs) of the images to retrieve.
+     * @return For each UID the preview image data, or empty if it could not be retrieved for any reason.
+     */
+    public Stream<Optional<byte[]>> getPreviewImagesByUid(List<String> imageUids) {
+        if (!reactiveEnabled) {
+            return imageUids.stream().map(imageUid -> {
+                try {
+                    return Optional.of(getPreviewImageByUid(imageUid));
+                } catch (RuntimeException e) {
+                    log.warn("Skipping preview for UID: {} in batch", imageUid, e);
+                    return Optional.empty();
+                }
+            });
+        }
+
+        return Flux.fromIterable(imageUids)
+                .flatMapSequential(imageUid -> Mono.fromFuture(() -> getPreviewImageByUidAsync(imageUid))
+                        // Cache lookups and instance resolution block, so they must not run on the event loop
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .map(Optional::of)
+                        .onErrorResume(e -> {
+                            log.warn("Skipping preview for UID: {} in batch", imageUid, e);
+                            return Mono.just(Optional.empty());
+                        }), batchConcurrency)
+                .toStream(batchConcurrency);
+    }
+
+    /**
+     * Streams a preview image by its UID to the given consumer.
+     *
+     * @param imageUid The unique identifier (UID) of the image to retrieve.
+     * @param consumer Receives the image body.
+     * @throws IOException If forwarding the image fails.
+     * @throws NullPointerException if the imageUid is null.
+     */
+    public void streamPreviewImageByUid(String imageUid, ImageStreamConsumer consumer) throws IOException {
+        if (imageUid == null) {
+            log.error("Image UID is null");
+            throw new NullPointerException("imageUid is null");
+        }
+        log.debug("Streaming preview image for UID: {}", imageUid);
+
+        try {
+            imageCacheService.stream(PREVIEW_CACHE_PREFIX + imageUid,
+                    source -> orthancInstanceService.streamImage(imageUid, InstanceView.PREVIEW, PREVIEW_MEDIA_TYPE, source),
+                    consumer);
+        } catch (IOException | OrthancUnavailableException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("Failed to fetch preview image for UID: {}", imageUid, e);
+            log.error("Failed to stream preview image for UID: {}", imageUid, e);
             throw new InvalidPathException(imageUid, "Failed to retrieve preview image from Orthanc");
         }
     }
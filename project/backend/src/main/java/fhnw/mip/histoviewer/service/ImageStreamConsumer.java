@@ -0,0 +1,21 @@
+package fhnw.mip.histoviewer.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the body of an image while it is being streamed, e.g. from Orthanc or from the disk cache.
+ * The stream is only valid for the duration of the call and is closed by the caller afterwards.
+ */
+@FunctionalInterface
+public interface ImageStreamConsumer {
+
+    /**
+     * Consumes the image body.
+     *
+     * @param body          The image bytes as a stream.
+     * @param contentLength The number of bytes in the stream, or -1 if unknown.
+     * @throws IOException If reading or forwarding the stream fails.
+     */
+    void accept(InputStream body, long contentLength) throws IOException;
+}
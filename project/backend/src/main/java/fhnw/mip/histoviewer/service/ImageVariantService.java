@@ -0,0 +1,126 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.cache.ImageCacheService;
+import fhnw.mip.histoviewer.cache.ImageValidator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.UncheckedIOException;
+import java.nio.file.InvalidPathException;
+import java.util.Optional;
+
+/**
+ * Service deriving resized and re-encoded variants of the Orthanc images, e.g. to fit the viewport of mobile clients.
+ * <p>
+ * Requested parameters are normalized before use: widths are rounded up to a multiple of
+ * {@code image.variant.width-step} and capped, qualities are rounded to {@code image.variant.quality-step}.
+ * This keeps the number of distinct variants per image small, so they can be cached by UID and parameters.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class ImageVariantService {
+    private static final String VARIANT_CACHE_PREFIX = "variant:";
+
+    /** The Orthanc rendering a variant is derived from. */
+    public enum Source {
+        DETAIL(ImageFormat.PNG),
+        PREVIEW(ImageFormat.JPEG);
+
+        private final ImageFormat nativeFormat;
+
+        Source(ImageFormat nativeFormat) {
+            this.nativeFormat = nativeFormat;
+        }
+    }
+
+    /**
+     * Normalized parameters of a variant.
+     *
+     * @param width   The maximum width in pixels, or null for the native width.
+     * @param quality The JPEG quality in percent, 0 for PNG.
+     * @param format  The target format.
+     */
+    public record Variant(Integer width, int quality, ImageFormat format) {
+    }
+
+    @Value("${image.variant.width-step}")
+    private int widthStep;
+    @Value("${image.variant.max-width}")
+    private int maxWidth;
+    @Value("${image.variant.quality-step}")
+    private int qualityStep;
+    @Value("${image.variant.default-quality}")
+    private int defaultQuality;
+
+    private final ImageService imageService;
+    private final ImageProcessingService imageProcessingService;
+    private final ImageCacheService imageCacheService;
+
+    /**
+     * Normalizes the requested parameters of a variant.
+     *
+     * @param source  The rendering the variant is derived from.
+     * @param width   The requested width in pixels, or null for the native width.
+     * @param quality The requested JPEG quality in percent, or null for the default.
+     * @param format  The requested format, or null for the format of the source.
+     * @return The normalized parameters.
+     */
+    public Variant normalize(Source source, Integer width, Integer quality, ImageFormat format) {
+        ImageFormat targetFormat = format != null ? format : source.nativeFormat;
+        Integer targetWidth = width == null ? null
+                : Math.min(maxWidth, (width + widthStep - 1) / widthStep * widthStep);
+        int targetQuality = 0;
+        if (targetFormat == ImageFormat.JPEG) {
+            int requested = quality != null ? quality : defaultQuality;
+            targetQuality = Math.max(qualityStep, Math.min(100, Math.round((float) requested / qualityStep) * qualityStep));
+        }
+        return new Variant(targetWidth, targetQuality, targetFormat);
+    }
+
+    /**
+     * Retrieves a variant of an image, deriving it from the Orthanc rendering if it is not cached yet.
+     *
+     * @param imageUid The unique identifier (UID) of the image.
+     * @param source   The rendering the variant is derived from.
+     * @param variant  The normalized parameters of the variant.
+     * @return The encoded variant.
+     * @throws InvalidPathException If the source cannot be retrieved or converted.
+     */
+    public byte[] getVariant(String imageUid, Source source, Variant variant) {
+        log.debug("Fetching {} variant {} for UID: {}", source, variant, imageUid);
+
+        return imageCacheService.get(cacheKey(imageUid, source, variant), () -> {
+            byte[] original = source == Source.DETAIL
+                    ? imageService.getImageByUid(imageUid)
+                    : imageService.getPreviewImageByUid(imageUid);
+            try {
+                return imageProcessingService.resize(original, variant.width(), variant.format(),
+                        variant.quality() / 100f);
+            } catch (IllegalArgumentException | UncheckedIOException e) {
+                log.error("Failed to derive {} variant {} for UID: {}", source, variant, imageUid, e);
+                throw new InvalidPathException(imageUid, "Failed to derive image variant");
+            }
+        });
+    }
+
+    /**
+     * Returns the ETag and Last-Modified validators of a cached variant without deriving it again.
+     *
+     * @param imageUid The unique identifier (UID) of the image.
+     * @param source   The rendering the variant is derived from.
+     * @param variant  The normalized parameters of the variant.
+     * @return The validators, or empty if the variant is not cached.
+     */
+    public Optional<ImageValidator> getVariantValidator(String imageUid, Source source, Variant variant) {
+        return imageCacheService.getValidator(cacheKey(imageUid, source, variant));
+    }
+
+    private String cacheKey(String imageUid, Source source, Variant variant) {
+        return VARIANT_CACHE_PREFIX + source + ":" + (variant.width() != null ? variant.width() : "native") + ":"
+                + variant.quality() + ":" + variant.format() + ":" + imageUid;
+    }
+}
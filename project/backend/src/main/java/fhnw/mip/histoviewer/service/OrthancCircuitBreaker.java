@@ -0,0 +1,212 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.exeption.OrthancUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Circuit breaker and bulkhead guarding all requests to Orthanc.
+ * <p>
+ * After {@code orthanc.circuit.failure-threshold} consecutive failures (connection errors, timeouts or 5xx
+ * responses) the breaker opens and requests fail immediately with an {@link OrthancUnavailableException}
+ * instead of tying up request threads. After {@code orthanc.circuit.open-duration} a single trial request is let
+ * through; if it succeeds the breaker closes again, otherwise it stays open for another period.
+ * Independently of the breaker state, at most {@code orthanc.bulkhead.max-concurrent-requests} requests run at
+ * the same time; callers that cannot get a slot within {@code orthanc.bulkhead.max-wait} are rejected.
+ * Reactive requests share the breaker state and the bulkhead, so both clients together stay within one budget;
+ * they wait for their slot on a worker thread instead of the event loop.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class OrthancCircuitBreaker {
+
+    /** States of the breaker, exported as gauge value by their ordinal. */
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    @Value("${orthanc.circuit.failure-threshold}")
+    private int failureThreshold;
+    @Value("${orthanc.circuit.open-duration}")
+    private Duration openDuration;
+    @Value("${orthanc.bulkhead.max-concurrent-requests}")
+    private int maxConcurrentRequests;
+    @Value("${orthanc.bulkhead.max-wait}")
+    private Duration maxWait;
+
+    private final MeterRegistry meterRegistry;
+
+    private Semaphore bulkhead;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private Instant openedAt;
+    private boolean trialInFlight;
+
+    private Counter rejectedOpen;
+    private Counter rejectedBulkhead;
+
+    /**
+     * Creates the bulkhead and registers the breaker metrics.
+     */
+    @PostConstruct
+    public void init() {
+        bulkhead = new Semaphore(maxConcurrentRequests);
+
+        Gauge.builder("orthanc.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .description("State of the Orthanc circuit breaker: 0 closed, 1 half open, 2 open")
+                .register(meterRegistry);
+        Gauge.builder("orthanc.bulkhead.available", bulkhead, Semaphore::availablePermits)
+                .description("Free slots for concurrent Orthanc requests")
+                .register(meterRegistry);
+        rejectedOpen = rejectedCounter("circuit-open");
+        rejectedBulkhead = rejectedCounter("bulkhead-full");
+    }
+
+    /**
+     * Runs a request to Orthanc if the breaker and the bulkhead allow it and records its outcome.
+     * Client errors (4xx) count as successes, as Orthanc itself answered properly.
+     *
+     * @param request The request to run.
+     * @return The result of the request.
+     * @throws OrthancUnavailableException If the request is rejected or fails because Orthanc is unavailable.
+     */
+    public <T> T call(Supplier<T> request) {
+        acquirePermission();
+        acquireSlot();
+        try {
+            T result = request.get();
+            onSuccess();
+            return result;
+        } catch (ResourceAccessException | HttpServerErrorException e) {
+            onFailure();
+            throw new OrthancUnavailableException("Orthanc request failed", e);
+        } catch (RuntimeException e) {
+            onSuccess();
+            throw e;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #call(Supplier)} for reactive requests. The request is only subscribed to if
+     * the breaker allows it and a bulkhead slot is free; its outcome is recorded when it completes or fails.
+     * The slot is awaited on a worker thread and released when the request completes, fails or is cancelled.
+     *
+     * @param request The request to run.
+     * @return The guarded request, failing with an {@link OrthancUnavailableException} if Orthanc is unavailable.
+     */
+    public <T> Flux<T> guard(Flux<T> request) {
+        return Flux.using(() -> {
+                    acquirePermission();
+                    acquireSlot();
+                    return bulkhead;
+                },
+                slot -> request
+                        .doOnComplete(this::onSuccess)
+                        .doOnCancel(this::releaseTrial)
+                        .onErrorMap(e -> {
+                            if (isUnavailable(e)) {
+                                onFailure();
+                                return new OrthancUnavailableException("Orthanc request failed", e);
+                            }
+                            onSuccess();
+                            return e;
+                        }),
+                Semaphore::release)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * @return The current state of the breaker.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    private boolean isUnavailable(Throwable e) {
+        return e instanceof WebClientRequestException || e instanceof TimeoutException
+                || (e instanceof WebClientResponseException response && response.getStatusCode().is5xxServerError());
+    }
+
+    private synchronized void acquirePermission() {
+        if (state == State.OPEN && !Instant.now().isBefore(openedAt.plus(openDuration))) {
+            log.info("Orthanc circuit breaker half open, letting a trial request through.");
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && trialInFlight)) {
+            rejectedOpen.increment();
+            throw new OrthancUnavailableException("Orthanc circuit breaker is open");
+        }
+        if (state == State.HALF_OPEN) {
+            trialInFlight = true;
+        }
+    }
+
+    /**
+     * Waits up to {@code orthanc.bulkhead.max-wait} for a bulkhead slot, which the caller must release.
+     */
+    private void acquireSlot() {
+        try {
+            if (!bulkhead.tryAcquire(maxWait.toMillis(), TimeUnit.MILLISECONDS)) {
+                releaseTrial();
+                rejectedBulkhead.increment();
+                throw new OrthancUnavailableException("Too many concurrent requests to Orthanc");
+            }
+        } catch (InterruptedException e) {
+            releaseTrial();
+            Thread.currentThread().interrupt();
+            throw new OrthancUnavailableException("Interrupted while waiting for an Orthanc request slot", e);
+        }
+    }
+
+    private synchronized void releaseTrial() {
+        trialInFlight = false;
+    }
+
+    private synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            log.info("Orthanc recovered, closing circuit breaker.");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    private synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            log.warn("Opening Orthanc circuit breaker after {} consecutive failures.", consecutiveFailures);
+            state = State.OPEN;
+            openedAt = Instant.now();
+        }
+        trialInFlight = false;
+    }
+
+    private Counter rejectedCounter(String reason) {
+        return Counter.builder("orthanc.circuit.rejected")
+                .description("Orthanc requests rejected without reaching Orthanc")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
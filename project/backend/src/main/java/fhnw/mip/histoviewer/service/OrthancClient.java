@@ -0,0 +1,217 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.exeption.ImageForwardingException;
+import fhnw.mip.histoviewer.exeption.OrthancUnavailableException;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Client for the Orthanc image server.
+ * Builds the WADO and instance requests for rendered images and either returns the whole body or streams it.
+ * Instances are addressed by their Orthanc ID, which is resolved from the SOP instance UID via {@code /tools/lookup}.
+ * All requests pass the {@link OrthancCircuitBreaker}, so an unavailable Orthanc fails fast.
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class OrthancClient {
+    /** URI template of the WADO request; kept as template so request metrics are tagged per route, not per image. */
+    static final String WADO_PATH =
+            "/wado?requestType=WADO&contentType=application/dicom&objectUID={imageUid}&contentType={mediaType}";
+    private static final String LOOKUP_PATH = "/tools/lookup";
+    private static final String INSTANCES_PATH = "/instances";
+    static final String INSTANCE_PATH = "/instances/{instanceId}/{view}";
+    private static final String INSTANCE_TYPE = "Instance";
+
+    /** Renderings of an instance offered by the Orthanc REST API. */
+    public enum InstanceView {
+        RENDERED("rendered"),
+        PREVIEW("preview");
+
+        private final String path;
+
+        InstanceView(String path) {
+            this.path = path;
+        }
+
+        String getPath() {
+            return path;
+        }
+    }
+
+    /** Entry of the {@code /tools/lookup} response. */
+    record LookupResult(@JsonProperty("ID") String id, @JsonProperty("Type") String type) {
+    }
+
+    @Value("${orthanc.url}")
+    private String ORTHANC_URL;
+
+    private final RestTemplate restTemplate;
+    private final OrthancCircuitBreaker circuitBreaker;
+
+    /**
+     * Fetches a rendered image from Orthanc into memory.
+     *
+     * @param imageUid  The SOP instance UID of the image.
+     * @param mediaType The format Orthanc should render the image in.
+     * @return The image data as a byte array.
+     * @throws OrthancUnavailableException If Orthanc is unavailable.
+     */
+    public byte[] fetchImage(String imageUid, MediaType mediaType) {
+        log.debug("Requesting {} for UID: {} from Orthanc", mediaType, imageUid);
+        return circuitBreaker.call(() ->
+                restTemplate.getForObject(ORTHANC_URL + WADO_PATH, byte[].class, imageUid, mediaType));
+    }
+
+    /**
+     * Streams a rendered image from Orthanc to the given consumer without buffering the whole body.
+     *
+     * @param imageUid  The SOP instance UID of the image.
+     * @param mediaType The format Orthanc should render the image in.
+     * @param consumer  Receives the response body while the connection is open.
+     * @throws OrthancUnavailableException If Orthanc is unavailable.
+     * @throws ImageForwardingException If the consumer fails for another reason than reading the body.
+     */
+    public void streamImage(String imageUid, MediaType mediaType, ImageStreamConsumer consumer) {
+        log.debug("Streaming {} for UID: {} from Orthanc", mediaType, imageUid);
+        circuitBreaker.call(() -> restTemplate.execute(ORTHANC_URL + WADO_PATH, HttpMethod.GET,
+                request -> request.getHeaders().setAccept(List.of(mediaType)),
+                response -> forward(response, consumer), imageUid, mediaType));
+    }
+
+    /**
+     * Fetches a rendering of an instance from Orthanc into memory, skipping the UID search of a WADO request.
+     *
+     * @param instanceId The Orthanc ID of the instance.
+     * @param view       The rendering to fetch.
+     * @param mediaType  The format Orthanc should render the image in.
+     * @return The image data as a byte array.
+     * @throws org.springframework.web.client.HttpClientErrorException.NotFound If Orthanc does not know the instance.
+     * @throws OrthancUnavailableException If Orthanc is unavailable.
+     */
+    public byte[] fetchInstance(String instanceId, InstanceView view, MediaType mediaType) {
+        log.debug("Requesting {} {} of instance {} from Orthanc", mediaType, view, instanceId);
+        return circuitBreaker.call(() -> restTemplate.execute(ORTHANC_URL + INSTANCE_PATH, HttpMethod.GET,
+                request -> request.getHeaders().setAccept(List.of(mediaType)),
+                response -> response.getBody().readAllBytes(), instanceId, view.path));
+    }
+
+    /**
+     * Streams a rendering of an instance from Orthanc to the given consumer without buffering the whole body.
+     *
+     * @param instanceId The Orthanc ID of the instance.
+     * @param view       The rendering to fetch.
+     * @param mediaType  The format Orthanc should render the image in.
+     * @param consumer   Receives the response body while the connection is open.
+     * @throws org.springframework.web.client.HttpClientErrorException.NotFound If Orthanc does not know the instance.
+     * @throws OrthancUnavailableException If Orthanc is unavailable.
+     * @throws ImageForwardingException If the consumer fails for another reason than reading the body.
+     */
+    public void streamInstance(String instanceId, InstanceView view, MediaType mediaType, ImageStreamConsumer consumer) {
+        log.debug("Streaming {} {} of instance {} from Orthanc", mediaType, view, instanceId);
+        circuitBreaker.call(() -> restTemplate.execute(ORTHANC_URL + INSTANCE_PATH, HttpMethod.GET,
+                request -> request.getHeaders().setAccept(List.of(mediaType)),
+                response -> forward(response, consumer), instanceId, view.path));
+    }
+
+    /**
+     * Looks up the Orthanc ID of the instance with the given SOP instance UID.
+     *
+     * @param imageUid The SOP instance UID of the image.
+     * @return The Orthanc instance ID, or empty if Orthanc does not hold the instance.
+     * @throws OrthancUnavailableException If Orthanc is unavailable.
+     */
+    public Optional<String> lookupInstanceId(String imageUid) {
+        LookupResult[] results = circuitBreaker.call(() ->
+                restTemplate.postForObject(ORTHANC_URL + LOOKUP_PATH, imageUid, LookupResult[].class));
+        return results == null ? Optional.empty() : Arrays.stream(results)
+                .filter(result -> INSTANCE_TYPE.equals(result.type()))
+                .map(LookupResult::id)
+                .findFirst();
+    }
+
+    /**
+     * Fetches the IDs of all instances Orthanc holds.
+     *
+     * @return The Orthanc instance IDs.
+     * @throws OrthancUnavailableException If Orthanc is unavailable.
+     */
+    public Set<String> fetchInstanceIds() {
+        String[] instanceIds = circuitBreaker.call(() ->
+                restTemplate.getForObject(ORTHANC_URL + INSTANCES_PATH, String[].class));
+        return instanceIds == null ? Set.of() : new HashSet<>(Arrays.asList(instanceIds));
+    }
+
+    /**
+     * Hands the response body to the consumer. Failures reading the body are left to the circuit breaker,
+     * while failures of the consumer itself, e.g. a disconnected client, are raised as
+     * {@link ImageForwardingException}, as Orthanc answered properly.
+     */
+    private static Void forward(ClientHttpResponse response, ImageStreamConsumer consumer) throws IOException {
+        UpstreamInputStream body = new UpstreamInputStream(response.getBody());
+        try {
+            consumer.accept(body, response.getHeaders().getContentLength());
+        } catch (IOException e) {
+            if (body.failed) {
+                throw e;
+            }
+            throw new ImageForwardingException("Failed to forward image body received from Orthanc", e);
+        }
+        return null;
+    }
+
+    /** Response body that records whether reading it from Orthanc failed. */
+    private static final class UpstreamInputStream extends FilterInputStream {
+        private boolean failed;
+
+        UpstreamInputStream(InputStream body) {
+            super(body);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                return super.read(buffer, offset, length);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            try {
+                return super.skip(count);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.exeption.OrthancUnavailableException;
+import fhnw.mip.histoviewer.model.DicomData;
+import fhnw.mip.histoviewer.repository.DicomDataRepository;
+import fhnw.mip.histoviewer.repository.DicomDataRepository.InstanceMapping;
+import fhnw.mip.histoviewer.service.OrthancClient.InstanceView;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Fetches images from Orthanc by instance ID instead of by SOP instance UID.
+ * <p>
+ * A WADO request makes Orthanc search its index for the UID on every request. Instead, the Orthanc ID of each
+ * instance is looked up once, persisted on {@link DicomData}, and images are requested from
+ * {@code /instances/{id}/rendered} or {@code /instances/{id}/preview}. If Orthanc no longer knows a persisted
+ * instance, the ID is looked up again and the request repeated. Images without a {@link DicomData} row, e.g.
+ * requested by UID only, are still fetched via WADO. A UID Orthanc does not hold is not looked up again by image
+ * requests for {@code orthanc.instances.miss-ttl}.
+ * With {@code orthanc.reactive.enabled}, {@link #fetchImageAsync} uses the {@link ReactiveOrthancClient} instead.
+ * </p>
+ * <p>
+ * A scheduled reconciliation resolves missing mappings and repairs those whose instance is gone from Orthanc,
+ * e.g. after a study was re-imported. UIDs that were never looked up come first and failed ones are retried in the
+ * order they failed, so UIDs Orthanc does not hold cannot keep the others out of the batch.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class OrthancInstanceService {
+
+    @Value("${orthanc.instances.enabled}")
+    private boolean enabled;
+    @Value("${orthanc.instances.reconcile-batch-size}")
+    private int reconcileBatchSize;
+    @Value("${orthanc.instances.miss-ttl}")
+    private Duration missTtl;
+
+    private final OrthancClient orthancClient;
+    private final DicomDataRepository dicomDataRepository;
+    private final Optional<ReactiveOrthancClient> reactiveOrthancClient;
+
+    /** Time of the last failed lookup of each UID Orthanc did not return an instance for. */
+    private final Map<String, Instant> failedLookups = new ConcurrentHashMap<>();
+
+    /**
+     * Fetches a rendered image from Orthanc into memory.
+     *
+     * @param imageUid  The SOP instance UID of the image.
+     * @param view      The rendering to fetch if the instance ID is known.
+     * @param mediaType The format Orthanc should render the image in.
+     * @return The image data as a byte array.
+     * @throws OrthancUnavailableException If Orthanc is unavailable.
+     */
+    public byte[] fetchImage(String imageUid, InstanceView view, MediaType mediaType) {
+        Optional<String> instanceId = resolve(imageUid);
+        if (instanceId.isPresent()) {
+            try {
+                return orthancClient.fetchInstance(instanceId.get(), view, mediaType);
+            } catch (HttpClientErrorException.NotFound e) {
+                Optional<String> repaired = repair(imageUid, instanceId.get());
+                if (repaired.isPresent()) {
+                    return orthancClient.fetchInstance(repaired.get(), view, mediaType);
+                }
+            }
+        }
+        return orthancClient.fetchImage(imageUid, mediaType);
+    }
+
+    /**
+     * Fetches a rendered image from Orthanc without holding a thread while the request is in flight.
+     * The instance ID is resolved on the calling thread; the returned future completes on a worker thread, never on
+     * the event loop, so callers may block in its callbacks. Without the reactive client, the image is fetched
+     * on the calling thread.
+     *
+     * @param imageUid  The SOP instance UID of the image.
+     * @param view      The rendering to fetch if the instance ID is known.
+     * @param mediaType The format Orthanc should render the image in.
+     * @return The image data, failing with an {@link OrthancUnavailableException} if Orthanc is unavailable.
+     */
+    public CompletableFuture<byte[]> fetchImageAsync(String imageUid, InstanceView view, MediaType mediaType) {
+        if (reactiveOrthancClient.isEmpty()) {
+            return CompletableFuture.completedFuture(fetchImage(imageUid, view, mediaType));
+        }
+
+        ReactiveOrthancClient client = reactiveOrthancClient.get();
+        Mono<byte[]> image = resolve(imageUid)
+                .map(instanceId -> client.fetchInstance(instanceId, view, mediaType)
+                        .onErrorResume(WebClientResponseException.NotFound.class, e ->
+                                Mono.fromCallable(() -> repair(imageUid, instanceId))
+                                        .subscribeOn(Schedulers.boundedElastic())
+                                        .flatMap(repaired -> repaired
+                                                .map(repairedId -> client.fetchInstance(repairedId, view, mediaType))
+                                                .orElseGet(() -> client.fetchImage(imageUid, mediaType)))))
+                .orElseGet(() -> client.fetchImage(imageUid, mediaType));
+        return image.publishOn(Schedulers.boundedElastic()).toFuture();
+    }
+
+    /**
+     * Streams a rendered image from Orthanc to the given consumer without buffering the whole body.
+     * A missing instance is detected before the body is handed to the consumer, so the request can be repeated.
+     *
+     * @param imageUid  The SOP instance UID of the image.
+     * @param view      The rendering to fetch if the instance ID is known.
+     * @param mediaType The format Orthanc should render the image in.
+     * @param consumer  Receives the response body while the connection is open.
+     * @throws OrthancUnavailableException If Orthanc is unavailable.
+     */
+    public void streamImage(String imageUid, InstanceView view, MediaType mediaType, ImageStreamConsumer consumer) {
+        Optional<String> instanceId = resolve(imageUid);
+        if (instanceId.isPresent()) {
+            try {
+                orthancClient.streamInstance(instanceId.get(), view, mediaType, consumer);
+                return;
+            } catch (HttpClientErrorException.NotFound e) {
+                Optional<String> repaired = repair(imageUid, instanceId.get());
+                if (repaired.isPresent()) {
+                    orthancClient.streamInstance(repaired.get(), view, mediaType, consumer);
+                    return;
+                }
+            }
+        }
+        orthancClient.streamImage(imageUid, mediaType, consumer);
+    }
+
+    /**
+     * Resolves missing instance IDs and repairs those Orthanc no longer holds.
+     * At most {@code orthanc.instances.reconcile-batch-size} UIDs are looked up per run; the run stops early
+     * if Orthanc becomes unavailable.
+     */
+    @Scheduled(fixedDelayString = "${orthanc.instances.reconcile-interval}",
+            initialDelayString = "${orthanc.instances.reconcile-initial-delay}")
+    public void reconcile() {
+        if (!enabled) {
+            return;
+        }
+
+        Set<String> knownInstanceIds;
+        try {
+            knownInstanceIds = orthancClient.fetchInstanceIds();
+        } catch (OrthancUnavailableException e) {
+            log.debug("Orthanc unavailable, skipping instance reconciliation.");
+            return;
+        }
+
+        List<InstanceMapping> outdated = dicomDataRepository.findAllInstanceMappings().stream()
+                .filter(mapping -> mapping.getOrthancInstanceId() == null
+                        || !knownInstanceIds.contains(mapping.getOrthancInstanceId()))
+                .sorted(Comparator.comparing(mapping -> failedLookups.getOrDefault(mapping.getUid(), Instant.MIN)))
+                .limit(reconcileBatchSize)
+                .toList();
+        if (outdated.isEmpty()) {
+            return;
+        }
+        log.debug("Reconciling {} Orthanc instance mappings.", outdated.size());
+
+        int resolved = 0;
+        for (InstanceMapping mapping : outdated) {
+            try {
+                String instanceId = orthancClient.lookupInstanceId(mapping.getUid()).orElse(null);
+                if (!Objects.equals(instanceId, mapping.getOrthancInstanceId())) {
+                    dicomDataRepository.updateOrthancInstanceId(mapping.getUid(), instanceId);
+                }
+                if (instanceId != null) {
+                    failedLookups.remove(mapping.getUid());
+                    resolved++;
+                } else {
+                    failedLookups.put(mapping.getUid(), Instant.now());
+                }
+            } catch (OrthancUnavailableException e) {
+                log.warn("Orthanc unavailable, stopping instance reconciliation after {} mappings.", resolved);
+                break;
+            } catch (RestClientException e) {
+                log.warn("Failed to look up Orthanc instance for UID: {}", mapping.getUid(), e);
+                failedLookups.put(mapping.getUid(), Instant.now());
+            }
+        }
+        log.info("Reconciled Orthanc instance mappings: {} of {} resolved.", resolved, outdated.size());
+    }
+
+    /**
+     * Returns the persisted instance ID of an image, looking it up and persisting it if it is not known yet.
+     *
+     * @return The instance ID, or empty if the lookup is disabled, the image has no DicomData row, or
+     * Orthanc does not hold the instance or did not within {@code orthanc.instances.miss-ttl}.
+     */
+    private Optional<String> resolve(String imageUid) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Optional<InstanceMapping> mapping = dicomDataRepository.findInstanceMappingByUid(imageUid);
+        if (mapping.isEmpty()) {
+            return Optional.empty();
+        }
+        if (mapping.get().getOrthancInstanceId() != null) {
+            return Optional.of(mapping.get().getOrthancInstanceId());
+        }
+        Instant failedAt = failedLookups.get(imageUid);
+        if (failedAt != null && failedAt.plus(missTtl).isAfter(Instant.now())) {
+            return Optional.empty();
+        }
+        return lookup(imageUid);
+    }
+
+    private Optional<String> repair(String imageUid, String staleInstanceId) {
+        log.info("Orthanc no longer holds instance {} of UID: {}, looking it up again", staleInstanceId, imageUid);
+        dicomDataRepository.updateOrthancInstanceId(imageUid, null);
+        return lookup(imageUid);
+    }
+
+    /**
+     * Looks up the instance ID in Orthanc and persists it. A failing lookup falls back to WADO instead of failing
+     * the image request, and is remembered so the following requests do not repeat it.
+     */
+    private Optional<String> lookup(String imageUid) {
+        try {
+            Optional<String> instanceId = orthancClient.lookupInstanceId(imageUid);
+            if (instanceId.isPresent()) {
+                dicomDataRepository.updateOrthancInstanceId(imageUid, instanceId.get());
+                failedLookups.remove(imageUid);
+            } else {
+                failedLookups.put(imageUid, Instant.now());
+            }
+            return instanceId;
+        } catch (RestClientException e) {
+            log.warn("Failed to look up Orthanc instance for UID: {}", imageUid, e);
+            failedLookups.put(imageUid, Instant.now());
+            return Optional.empty();
+        }
+    }
+}
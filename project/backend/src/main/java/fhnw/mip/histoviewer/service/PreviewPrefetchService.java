@@ -0,0 +1,91 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.exeption.OrthancUnavailableException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.InvalidPathException;
+import java.util.List;
+
+/**
+ * Warms the preview cache for the first results of a search.
+ * <p>
+ * The client requests the previews of the first page of hits right after a search. Fetching them in the
+ * background as soon as the search completes turns those requests into cache hits. Prefetching runs on a
+ * small bounded pool; when its queue is full further prefetches are dropped, as they are only an optimization
+ * and the client fetches the previews itself anyway.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class PreviewPrefetchService {
+
+    @Value("${image.prefetch.enabled}")
+    private boolean enabled;
+    @Value("${image.prefetch.count}")
+    private int count;
+    @Value("${image.prefetch.threads}")
+    private int threads;
+    @Value("${image.prefetch.queue-capacity}")
+    private int queueCapacity;
+    @Value("${spring.threads.virtual.enabled}")
+    private boolean virtualThreads;
+
+    private final ImageService imageService;
+
+    private ThreadPoolTaskExecutor executor;
+
+    /**
+     * Creates the prefetch pool. It is kept out of the application context, so it does not replace
+     * the executor Spring Boot provides for asynchronous request processing.
+     */
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("preview-prefetch-");
+        executor.setVirtualThreads(virtualThreads);
+        executor.setRejectedExecutionHandler((task, pool) -> log.debug("Prefetch queue is full, dropping prefetch"));
+        executor.initialize();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Starts fetching the previews of the first search results that are not cached yet. Returns immediately.
+     *
+     * @param imageUids The UIDs of the search results, in the order the client shows them.
+     */
+    public void prefetch(List<String> imageUids) {
+        if (!enabled) {
+            return;
+        }
+
+        List<String> missing = imageUids.stream()
+                .limit(count)
+                .filter(imageUid -> !imageService.isPreviewCached(imageUid))
+                .toList();
+        log.debug("Prefetching {} of {} previews", missing.size(), Math.min(count, imageUids.size()));
+
+        for (String imageUid : missing) {
+            executor.execute(() -> {
+                try {
+                    imageService.getPreviewImageByUid(imageUid);
+                } catch (InvalidPathException | OrthancUnavailableException e) {
+                    log.warn("Failed to prefetch preview for UID: {}", imageUid);
+                }
+            });
+        }
+    }
+}
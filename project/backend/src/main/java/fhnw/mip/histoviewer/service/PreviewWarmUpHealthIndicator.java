@@ -0,0 +1,36 @@
+package fhnw.mip.histoviewer.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports the state of the preview warm-up. While the warm-up is pending or running the indicator is
+ * out of service, so the instance is only marked ready once its preview cache is filled.
+ * A disabled, completed or aborted warm-up does not hold back readiness.
+ * The indicator is only part of the readiness group, not of the overall health, see
+ * {@link fhnw.mip.histoviewer.config.HealthGroupConfig}.
+ */
+@RequiredArgsConstructor
+@Component(PreviewWarmUpHealthIndicator.NAME)
+public class PreviewWarmUpHealthIndicator implements HealthIndicator {
+
+    /** The name of the indicator in the health groups. */
+    public static final String NAME = "previewWarmUp";
+
+    private final PreviewWarmUpService previewWarmUpService;
+
+    @Override
+    public Health health() {
+        PreviewWarmUpService.State state = previewWarmUpService.getState();
+        Health.Builder builder = state == PreviewWarmUpService.State.PENDING
+                || state == PreviewWarmUpService.State.RUNNING ? Health.outOfService() : Health.up();
+        return builder
+                .withDetail("state", state)
+                .withDetail("total", previewWarmUpService.getTotal())
+                .withDetail("completed", previewWarmUpService.getCompleted())
+                .withDetail("failed", previewWarmUpService.getFailed())
+                .build();
+    }
+}
@@ -0,0 +1,173 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.exeption.OrthancUnavailableException;
+import fhnw.mip.histoviewer.repository.DicomDataRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.InvalidPathException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Fills the image cache with the previews of the whole catalog after startup, so the first users after a
+ * deploy do not pay the Orthanc latency for every preview.
+ * <p>
+ * The warm-up starts once the application is ready, i.e. after the DICOM data import has run, and fetches the
+ * previews with a fixed number of workers. Previews that are already cached are skipped. Progress is logged in
+ * steps of ten percent and reported by the {@link PreviewWarmUpHealthIndicator}.
+ * If Orthanc becomes unavailable, the warm-up is aborted instead of waiting for every remaining preview to fail.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class PreviewWarmUpService {
+
+    /** Progress of the warm-up. */
+    public enum State {
+        DISABLED,
+        PENDING,
+        RUNNING,
+        COMPLETED,
+        ABORTED
+    }
+
+    private final DicomDataRepository dicomDataRepository;
+    private final ImageService imageService;
+
+    @Value("${image.warmup.enabled}")
+    private boolean enabled;
+    @Value("${image.warmup.concurrency}")
+    private int concurrency;
+    @Value("${spring.threads.virtual.enabled}")
+    private boolean virtualThreads;
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private volatile State state = State.PENDING;
+    @Getter
+    private volatile int total;
+
+    private ThreadPoolTaskExecutor executor;
+
+    /**
+     * @return The current state of the warm-up.
+     */
+    public State getState() {
+        return enabled ? state : State.DISABLED;
+    }
+
+    /**
+     * @return The number of previews processed so far, including failed ones.
+     */
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return The number of previews that could not be fetched.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Starts the warm-up in the background once the application is ready. Returns immediately.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+
+        List<String> imageUids = dicomDataRepository.findAllUids();
+        total = imageUids.size();
+        state = State.RUNNING;
+        log.info("Starting preview warm-up for {} images with {} workers.", total, concurrency);
+
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setThreadNamePrefix("preview-warmup-");
+        executor.setVirtualThreads(virtualThreads);
+        executor.initialize();
+
+        Instant started = Instant.now();
+        Queue<String> pending = new ConcurrentLinkedQueue<>(imageUids);
+        CompletableFuture<?>[] workers = IntStream.range(0, concurrency)
+                .mapToObj(i -> CompletableFuture.runAsync(() -> drain(pending), executor))
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(workers).whenComplete((result, e) -> finish(started, e));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Fetches previews from the shared queue until it is empty or the warm-up is aborted.
+     */
+    private void drain(Queue<String> pending) {
+        String imageUid;
+        while (state == State.RUNNING && (imageUid = pending.poll()) != null) {
+            try {
+                if (!imageService.isPreviewCached(imageUid)) {
+                    imageService.getPreviewImageByUid(imageUid);
+                }
+            } catch (OrthancUnavailableException e) {
+                failed.incrementAndGet();
+                if (state == State.RUNNING) {
+                    state = State.ABORTED;
+                    log.warn("Orthanc unavailable, aborting preview warm-up after {} of {} images.",
+                            completed.get(), total);
+                }
+                return;
+            } catch (InvalidPathException e) {
+                failed.incrementAndGet();
+                log.debug("Failed to warm up preview for UID: {}", imageUid);
+            } catch (RuntimeException e) {
+                // One broken image must not abort the warm-up of the others
+                failed.incrementAndGet();
+                log.warn("Failed to warm up preview for UID: {}", imageUid, e);
+            }
+            logProgress(completed.incrementAndGet());
+        }
+    }
+
+    private void logProgress(int done) {
+        int step = Math.max(1, total / 10);
+        if (done % step == 0 && done < total) {
+            log.info("Preview warm-up: {} of {} images ({}%).", done, total, done * 100 / total);
+        }
+    }
+
+    private void finish(Instant started, Throwable error) {
+        if (error != null) {
+            state = State.ABORTED;
+            log.error("Preview warm-up failed after {} of {} images.", completed.get(), total, error);
+        } else if (state == State.RUNNING) {
+            state = State.COMPLETED;
+            log.info("Preview warm-up completed: {} images in {} s, {} failed.",
+                    total, Duration.between(started, Instant.now()).toSeconds(), failed.get());
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,99 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.exeption.OrthancUnavailableException;
+import fhnw.mip.histoviewer.service.OrthancClient.InstanceView;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking client for the Orthanc image server, enabled by {@code orthanc.reactive.enabled}.
+ * Issues the same WADO and instance requests as the {@link OrthancClient}, but returns the response body as a
+ * stream of buffers that is only requested from Orthanc as fast as the subscriber consumes it.
+ * All requests pass the {@link OrthancCircuitBreaker}, so an unavailable Orthanc fails fast.
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+@ConditionalOnProperty(name = "orthanc.reactive.enabled", havingValue = "true")
+public class ReactiveOrthancClient {
+
+    private final WebClient orthancWebClient;
+    private final OrthancCircuitBreaker circuitBreaker;
+
+    /**
+     * Streams a rendered image from Orthanc by its SOP instance UID.
+     * The subscriber must release the buffers it receives.
+     *
+     * @param imageUid  The SOP instance UID of the image.
+     * @param mediaType The format Orthanc should render the image in.
+     * @return The response body, failing with an {@link OrthancUnavailableException} if Orthanc is unavailable.
+     */
+    public Flux<DataBuffer> streamImage(String imageUid, MediaType mediaType) {
+        log.debug("Streaming {} for UID: {} from Orthanc", mediaType, imageUid);
+        return circuitBreaker.guard(orthancWebClient.get()
+                .uri(OrthancClient.WADO_PATH, imageUid, mediaType)
+                .accept(mediaType)
+                .retrieve()
+                .bodyToFlux(DataBuffer.class));
+    }
+
+    /**
+     * Streams a rendering of an instance from Orthanc. The subscriber must release the buffers it receives.
+     *
+     * @param instanceId The Orthanc ID of the instance.
+     * @param view       The rendering to fetch.
+     * @param mediaType  The format Orthanc should render the image in.
+     * @return The response body, failing with a
+     * {@link org.springframework.web.reactive.function.client.WebClientResponseException.NotFound} if Orthanc does not
+     * know the instance or with an {@link OrthancUnavailableException} if Orthanc is unavailable.
+     */
+    public Flux<DataBuffer> streamInstance(String instanceId, InstanceView view, MediaType mediaType) {
+        log.debug("Streaming {} {} of instance {} from Orthanc", mediaType, view, instanceId);
+        return circuitBreaker.guard(orthancWebClient.get()
+                .uri(OrthancClient.INSTANCE_PATH, instanceId, view.getPath())
+                .accept(mediaType)
+                .retrieve()
+                .bodyToFlux(DataBuffer.class));
+    }
+
+    /**
+     * Fetches a rendered image from Orthanc by its SOP instance UID into memory.
+     *
+     * @see #streamImage(String, MediaType)
+     */
+    public Mono<byte[]> fetchImage(String imageUid, MediaType mediaType) {
+        return join(streamImage(imageUid, mediaType));
+    }
+
+    /**
+     * Fetches a rendering of an instance from Orthanc into memory.
+     *
+     * @see #streamInstance(String, InstanceView, MediaType)
+     */
+    public Mono<byte[]> fetchInstance(String instanceId, InstanceView view, MediaType mediaType) {
+        return join(streamInstance(instanceId, view, mediaType));
+    }
+
+    /**
+     * Collects the buffers of a body into one array and releases them.
+     */
+    private static Mono<byte[]> join(Flux<DataBuffer> body) {
+        return DataBufferUtils.join(body).map(buffer -> {
+            try {
+                byte[] data = new byte[buffer.readableByteCount()];
+                buffer.read(data);
+                return data;
+            } finally {
+                DataBufferUtils.release(buffer);
+            }
+        });
+    }
+}
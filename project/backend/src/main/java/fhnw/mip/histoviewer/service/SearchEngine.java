@@ -0,0 +1,22 @@
+package fhnw.mip.histoviewer.service;
+
+/**
+ * Engines resolving the text criteria of a search, selected by {@code search.engine}.
+ */
+public enum SearchEngine {
+    /** Case-insensitive substring match in the database; scans all descriptions and comments. */
+    LIKE,
+    /**
+     * In-memory inverted index kept by the {@link SearchIndexService}. A term matches if every one of its tokens is
+     * contained in the text, in any order; unlike with LIKE, a comment term is no phrase, and its tokens may be
+     * spread over different comments of the image.
+     */
+    INDEX,
+    /** PostgreSQL full-text search with German stemming; results are ordered by {@code ts_rank}. */
+    FULLTEXT,
+    /**
+     * PostgreSQL trigram similarity on descriptions and tag names, tolerating typos.
+     * Requires the {@code pg_trgm} extension, installed by a role with the CREATE privilege on the database.
+     */
+    FUZZY
+}
@@ -0,0 +1,293 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.model.Comment;
+import fhnw.mip.histoviewer.model.DicomData;
+import fhnw.mip.histoviewer.repository.CommentRepository;
+import fhnw.mip.histoviewer.repository.DicomDataRepository;
+import fhnw.mip.histoviewer.repository.IndexedText;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory inverted index over the descriptions and comments of the DICOM images, used by the
+ * {@link SearchEngine#INDEX} search engine.
+ * <p>
+ * Texts are split into tokens at every character that is neither a letter nor a digit, lower-cased and folded:
+ * umlauts are replaced by their transcription and other diacritics are dropped, so "Rückenmark" and "Rueckenmark"
+ * match each other. As with the LIKE search, a term matches every token containing it, so "mark" finds
+ * "Rückenmark". Terms are looked up in the vocabulary of distinct tokens instead of in every text.
+ * </p>
+ * <p>
+ * The index is only kept if {@code search.engine} selects it. It is built after startup, once the XML import has
+ * run, and updated whenever descriptions or comments change, after the changing transaction is committed. Until it
+ * is built, searches fall back to the LIKE engine.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class SearchIndexService {
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    @Value("${search.engine}")
+    private SearchEngine searchEngine;
+
+    private final DicomDataRepository dicomDataRepository;
+    private final CommentRepository commentRepository;
+
+    private volatile TextIndex descriptions = new TextIndex();
+    private volatile TextIndex comments = new TextIndex();
+    private volatile boolean ready;
+
+    /**
+     * @return true once the index has been built.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Builds the index from all descriptions and comments in the database, replacing the current one.
+     * Does nothing unless the index search engine is configured. Inside a transaction, the index is built once the
+     * transaction is committed, so it reads the committed state.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (searchEngine != SearchEngine.INDEX) {
+            log.debug("Search engine is {}, not building the search index.", searchEngine);
+            return;
+        }
+        afterCommit(this::build);
+    }
+
+    /**
+     * Updates the entries of a DicomData entity after its description or comments changed.
+     * Inside a transaction, the texts are read immediately and the index is updated once the transaction is committed.
+     *
+     * @param dicomData The changed entity, with its comments accessible.
+     */
+    public void index(DicomData dicomData) {
+        if (searchEngine != SearchEngine.INDEX) {
+            return;
+        }
+        Long id = dicomData.getId();
+        Set<String> descriptionTokens = tokenize(dicomData.getDescription());
+        Set<String> commentTokens = new HashSet<>();
+        for (Comment comment : dicomData.getComments()) {
+            commentTokens.addAll(tokenize(comment.getText()));
+        }
+        afterCommit(() -> put(id, descriptionTokens, commentTokens));
+    }
+
+    /**
+     * Removes the entries of a deleted DicomData entity, once the transaction deleting it is committed.
+     *
+     * @param id The ID of the deleted entity.
+     */
+    public void remove(Long id) {
+        if (searchEngine != SearchEngine.INDEX) {
+            return;
+        }
+        afterCommit(() -> delete(id));
+    }
+
+    /**
+     * Removes all entries, e.g. after all DicomData entities were deleted, once the transaction is committed.
+     */
+    public void clear() {
+        if (searchEngine != SearchEngine.INDEX) {
+            return;
+        }
+        afterCommit(this::reset);
+    }
+
+    /**
+     * Finds the DicomData entities whose description contains every token of the given term.
+     *
+     * @param term The search term.
+     * @return The IDs of the matching entities.
+     */
+    public Set<Long> findByDescription(String term) {
+        return find(descriptions, term);
+    }
+
+    /**
+     * Finds the DicomData entities whose comments contain every token of the given term.
+     * The comments of an entity are indexed together, so the tokens may be found in different comments.
+     *
+     * @param term The search term.
+     * @return The IDs of the matching entities.
+     */
+    public Set<Long> findByComments(String term) {
+        return find(comments, term);
+    }
+
+    /**
+     * Splits a text into folded tokens.
+     *
+     * @param text The text, may be null.
+     * @return The distinct tokens in order of their first occurrence.
+     */
+    static Set<String> tokenize(String text) {
+        if (text == null) {
+            return Set.of();
+        }
+        return Arrays.stream(TOKEN_SEPARATOR.split(fold(text)))
+                .filter(token -> !token.isEmpty())
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * Lower-cases a text, transcribes umlauts and drops all other diacritics.
+     */
+    static String fold(String text) {
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFC).toLowerCase(Locale.ROOT)
+                .replace("ä", "ae")
+                .replace("ö", "oe")
+                .replace("ü", "ue")
+                .replace("ß", "ss");
+        return DIACRITICS.matcher(Normalizer.normalize(folded, Normalizer.Form.NFD)).replaceAll("");
+    }
+
+    private synchronized void build() {
+        long start = System.nanoTime();
+        TextIndex newDescriptions = new TextIndex();
+        for (IndexedText description : dicomDataRepository.findAllDescriptions()) {
+            newDescriptions.put(description.getId(), tokenize(description.getText()));
+        }
+
+        Map<Long, Set<String>> commentTokens = new HashMap<>();
+        for (IndexedText comment : commentRepository.findAllTexts()) {
+            commentTokens.computeIfAbsent(comment.getId(), id -> new HashSet<>()).addAll(tokenize(comment.getText()));
+        }
+        TextIndex newComments = new TextIndex();
+        commentTokens.forEach(newComments::put);
+
+        descriptions = newDescriptions;
+        comments = newComments;
+        ready = true;
+        log.info("Built search index with {} description and {} comment tokens in {} ms.",
+                newDescriptions.size(), newComments.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private synchronized void put(Long id, Set<String> descriptionTokens, Set<String> commentTokens) {
+        descriptions.put(id, descriptionTokens);
+        comments.put(id, commentTokens);
+    }
+
+    private synchronized void delete(Long id) {
+        descriptions.remove(id);
+        comments.remove(id);
+    }
+
+    private synchronized void reset() {
+        descriptions = new TextIndex();
+        comments = new TextIndex();
+    }
+
+    /**
+     * Runs an update of the index after the current transaction is committed, or immediately outside a transaction.
+     * A rolled back change leaves the index as it is.
+     */
+    private static void afterCommit(Runnable update) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    update.run();
+                }
+            });
+        } else {
+            update.run();
+        }
+    }
+
+    private Set<Long> find(TextIndex index, String term) {
+        Set<String> tokens = tokenize(term);
+        if (tokens.isEmpty()) {
+            return Set.of();
+        }
+        Set<Long> result = null;
+        for (String token : tokens) {
+            Set<Long> matches = index.find(token);
+            if (result == null) {
+                result = matches;
+            } else {
+                result.retainAll(matches);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Postings from token to entity IDs, with the reverse mapping needed to update an entity incrementally.
+     * Writes are serialized by the enclosing service; reads run concurrently.
+     */
+    private static final class TextIndex {
+        private final Map<String, Set<Long>> postings = new ConcurrentHashMap<>();
+        private final Map<Long, Set<String>> tokensById = new ConcurrentHashMap<>();
+
+        void put(Long id, Set<String> tokens) {
+            remove(id);
+            if (tokens.isEmpty()) {
+                return;
+            }
+            tokensById.put(id, Set.copyOf(tokens));
+            for (String token : tokens) {
+                postings.computeIfAbsent(token, t -> ConcurrentHashMap.newKeySet()).add(id);
+            }
+        }
+
+        void remove(Long id) {
+            Set<String> tokens = tokensById.remove(id);
+            if (tokens == null) {
+                return;
+            }
+            for (String token : tokens) {
+                postings.computeIfPresent(token, (t, ids) -> {
+                    ids.remove(id);
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+        }
+
+        /**
+         * @return The IDs of all entities with a token containing the given one, as a new mutable set.
+         */
+        Set<Long> find(String token) {
+            Set<Long> result = new HashSet<>();
+            postings.forEach((indexed, ids) -> {
+                if (indexed.contains(token)) {
+                    result.addAll(ids);
+                }
+            });
+            return result;
+        }
+
+        int size() {
+            return postings.size();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package fhnw.mip.histoviewer.service;
 
+import fhnw.mip.histoviewer.cache.SearchResultCache;
 import fhnw.mip.histoviewer.model.DicomData;
 import fhnw.mip.histoviewer.model.Tag;
 import fhnw.mip.histoviewer.repository.DicomDataRepository;
@@ -15,7 +16,6 @@ import org.springframework.web.server.ResponseStatusException;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 @Log4j2
 @Service
@@ -25,6 +25,7 @@ public class TagService {
     private final TagRepository tagRepository;
     private final EntityManager em;
     private final DicomDataRepository dicomDataRepository;
+    private final SearchResultCache searchResultCache;
 
     @PersistenceContext
     private EntityManager entityManager;
@@ -65,9 +66,9 @@ public class TagService {
         }
 
         // Find all DicomData entities that have at least one of these tags
-        List<DicomData> affectedDicomData = dicomDataRepository.findAll().stream()
-                .filter(d -> d.getTags().stream().anyMatch(t -> tagsToRemove1.contains(t) || tagsToRemove2.contains(t)))
-                .collect(Collectors.toList());
+        List<Tag> tagsToRemove = new ArrayList<>(tagsToRemove1);
+        tagsToRemove.addAll(tagsToRemove2);
+        List<DicomData> affectedDicomData = dicomDataRepository.findDistinctByTagsIn(tagsToRemove);
 
         log.info("Found {} DicomData entities affected by these tags", affectedDicomData.size());
 
@@ -113,6 +114,8 @@ public class TagService {
         // Remove old tags if they are no longer associated with any DicomData
         tagRepository.deleteAll(tagsToRemove1);
         tagRepository.deleteAll(tagsToRemove2);
+        searchResultCache.evictByCriterion(SearchResultCache.TAGS,
+                affectedDicomData.stream().map(DicomData::getId).toList(), List.of(newTag));
 
         log.info("Tag replacement process completed successfully");
     }
@@ -136,6 +139,7 @@ public class TagService {
         // Remove the tag from the DicomData
         dicomData.getTags().remove(tag);
         dicomDataRepository.save(dicomData); // Persist the updated DicomData
+        searchResultCache.evictByCriterion(SearchResultCache.TAGS, dicomData.getId());
 
         // If no other DicomData references this tag, delete it
         if (tag.getDicomData().isEmpty()) {
@@ -153,11 +157,14 @@ public class TagService {
         Tag tag = tagRepository.findById(tagId)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Tag not found"));
 
+        List<Long> affectedIds = new ArrayList<>();
         for (DicomData dicomData : new ArrayList<>(tag.getDicomData())) {
             dicomData.getTags().remove(tag);
             dicomDataRepository.save(dicomData);
+            affectedIds.add(dicomData.getId());
         }
         tagRepository.delete(tag);
         entityManager.flush(); // Force immediate delete
+        searchResultCache.evictByCriterion(SearchResultCache.TAGS, affectedIds, List.of());
     }
 }
\ No newline at end of file
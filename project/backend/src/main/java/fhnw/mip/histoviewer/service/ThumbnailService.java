@@ -0,0 +1,138 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.cache.ImageCacheService;
+import fhnw.mip.histoviewer.cache.ImageValidator;
+import fhnw.mip.histoviewer.exeption.OrthancUnavailableException;
+import fhnw.mip.histoviewer.repository.DicomDataRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.UncheckedIOException;
+import java.nio.file.InvalidPathException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Service providing fixed-size thumbnail variants of the preview images.
+ * <p>
+ * Thumbnails are derived from the Orthanc preview in-process and stored as compact JPEGs in the image cache.
+ * Requests are served from the nearest configured size. A background job derives the missing variants for
+ * every image of the catalog, so thumbnails are usually cached before they are requested.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class ThumbnailService {
+    private static final String THUMBNAIL_CACHE_PREFIX = "preview-";
+
+    @Value("${image.thumbnail.sizes}")
+    private int[] sizes;
+    @Value("${image.thumbnail.quality}")
+    private float quality;
+
+    private final ImageService imageService;
+    private final ImageProcessingService imageProcessingService;
+    private final ImageCacheService imageCacheService;
+    private final DicomDataRepository dicomDataRepository;
+
+    /**
+     * Sorts the configured sizes, so the nearest size can be found by a linear scan.
+     */
+    @PostConstruct
+    public void init() {
+        Arrays.sort(sizes);
+    }
+
+    /**
+     * Finds the configured thumbnail size serving the requested size: the smallest variant that is at least as large,
+     * or the largest variant if the request exceeds all of them.
+     *
+     * @param requestedSize The requested length of the longer edge in pixels.
+     * @return The size of the variant to serve.
+     */
+    public int nearestSize(int requestedSize) {
+        for (int size : sizes) {
+            if (size >= requestedSize) {
+                return size;
+            }
+        }
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Retrieves the thumbnail of an image in the nearest configured size.
+     *
+     * @param imageUid      The unique identifier (UID) of the image.
+     * @param requestedSize The requested length of the longer edge in pixels.
+     * @return The thumbnail encoded as JPEG.
+     * @throws InvalidPathException If the preview cannot be retrieved or scaled.
+     */
+    public byte[] getThumbnail(String imageUid, int requestedSize) {
+        int size = nearestSize(requestedSize);
+        log.debug("Fetching {}px thumbnail for UID: {}", size, imageUid);
+
+        return imageCacheService.get(cacheKey(imageUid, size), () -> {
+            byte[] preview = imageService.getPreviewImageByUid(imageUid);
+            try {
+                return imageProcessingService.resizeToJpeg(preview, size, quality);
+            } catch (IllegalArgumentException | UncheckedIOException e) {
+                log.error("Failed to derive {}px thumbnail for UID: {}", size, imageUid, e);
+                throw new InvalidPathException(imageUid, "Failed to derive thumbnail from preview image");
+            }
+        });
+    }
+
+    /**
+     * Returns the ETag and Last-Modified validators of a cached thumbnail without deriving it again.
+     *
+     * @param imageUid      The unique identifier (UID) of the image.
+     * @param requestedSize The requested length of the longer edge in pixels.
+     * @return The validators, or empty if the thumbnail is not cached.
+     */
+    public Optional<ImageValidator> getThumbnailValidator(String imageUid, int requestedSize) {
+        return imageCacheService.getValidator(cacheKey(imageUid, nearestSize(requestedSize)));
+    }
+
+    /**
+     * Derives all thumbnail variants that are not cached yet for every image in the catalog.
+     * Images whose preview cannot be retrieved are skipped and retried with the next run.
+     */
+    @Scheduled(initialDelayString = "${image.thumbnail.job.initial-delay}",
+            fixedDelayString = "${image.thumbnail.job.interval}")
+    public void generateThumbnails() {
+        List<String> imageUids = dicomDataRepository.findAllUids();
+        log.info("Generating thumbnails in sizes {} for {} images.", Arrays.toString(sizes), imageUids.size());
+
+        int generated = 0;
+        int failed = 0;
+        for (String imageUid : imageUids) {
+            for (int size : sizes) {
+                if (imageCacheService.contains(cacheKey(imageUid, size))) {
+                    continue;
+                }
+                try {
+                    getThumbnail(imageUid, size);
+                    generated++;
+                } catch (InvalidPathException e) {
+                    // The preview itself is unavailable, so the remaining sizes would fail as well
+                    failed++;
+                    break;
+                } catch (OrthancUnavailableException e) {
+                    log.warn("Orthanc unavailable, stopping thumbnail generation after {} thumbnails.", generated);
+                    return;
+                }
+            }
+        }
+        log.info("Thumbnail generation finished: {} generated, {} failed.", generated, failed);
+    }
+
+    private String cacheKey(String imageUid, int size) {
+        return THUMBNAIL_CACHE_PREFIX + size + ":" + imageUid;
+    }
+}
@@ -0,0 +1,209 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.cache.CachedImage;
+import fhnw.mip.histoviewer.cache.MemoryImageCache;
+import fhnw.mip.histoviewer.exeption.ResourceNotFoundException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.UncheckedIOException;
+import java.nio.file.InvalidPathException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Service cutting the detail images into Deep Zoom (DZI) tile pyramids.
+ * <p>
+ * Level {@code maxLevel} holds the image in full resolution, every level below halves the size down to a
+ * single pixel at level 0. Tiles are generated lazily: the first request for a tile of a level renders the whole
+ * level from the Orthanc image and stores all of its tiles, so the detail viewer only transfers the tiles
+ * currently visible.
+ * </p>
+ * <p>
+ * Tiles are kept in a memory cache of their own, bounded by {@code image.tiles.cache.max-size}, so rendering the
+ * levels of a large image does not evict the previews from the image cache. They are not written to the disk tier,
+ * as they can be rendered again from the cached source image without contacting Orthanc.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class TileService {
+    private static final String TILE_CACHE_PREFIX = "tile:";
+    private static final String DZI_NAMESPACE = "http://schemas.microsoft.com/deepzoom/2008";
+
+    @Value("${image.tiles.size}")
+    private int tileSize;
+    @Value("${image.tiles.quality}")
+    private float quality;
+    @Value("${image.tiles.cache.max-size}")
+    private DataSize cacheMaxSize;
+    @Value("${image.tiles.cache.ttl}")
+    private Duration cacheTtl;
+
+    private final ImageService imageService;
+    private final ImageProcessingService imageProcessingService;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Dimension> dimensions = new ConcurrentHashMap<>();
+    private final Map<String, LevelLock> levelLocks = new ConcurrentHashMap<>();
+
+    private MemoryImageCache tileCache;
+
+    /**
+     * Creates the tile cache and registers its size metric.
+     */
+    @PostConstruct
+    public void init() {
+        tileCache = new MemoryImageCache(cacheMaxSize.toBytes(), cacheTtl);
+        Gauge.builder("image.tiles.cache.size", tileCache, MemoryImageCache::getCurrentBytes)
+                .description("Bytes currently held by the tile cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Builds the DZI descriptor of an image, which tells the viewer the image size and tile layout.
+     *
+     * @param imageUid The unique identifier (UID) of the image.
+     * @return The DZI descriptor as XML.
+     */
+    public String getDescriptor(String imageUid) {
+        Dimension size = getDimensions(imageUid);
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+                "<Image xmlns=\"" + DZI_NAMESPACE + "\" TileSize=\"" + tileSize + "\" Overlap=\"0\" Format=\"jpg\">" +
+                "<Size Width=\"" + size.width + "\" Height=\"" + size.height + "\"/>" +
+                "</Image>";
+    }
+
+    /**
+     * Retrieves a single tile of the pyramid, rendering its level first if it is not cached yet.
+     *
+     * @param imageUid The unique identifier (UID) of the image.
+     * @param level    The pyramid level, 0 being a single pixel.
+     * @param column   The tile column, counted from the left.
+     * @param row      The tile row, counted from the top.
+     * @return The tile encoded as JPEG.
+     * @throws ResourceNotFoundException If the level or tile lies outside the pyramid.
+     */
+    public byte[] getTile(String imageUid, int level, int column, int row) {
+        Dimension levelSize = getLevelSize(getDimensions(imageUid), level);
+        if (column < 0 || row < 0 || column * tileSize >= levelSize.width || row * tileSize >= levelSize.height) {
+            throw new ResourceNotFoundException("Tile " + column + "_" + row + " does not exist on level " + level);
+        }
+
+        log.debug("Fetching tile {}/{}_{} for UID: {}", level, column, row, imageUid);
+        CachedImage cached = tileCache.get(tileKey(imageUid, level, column, row));
+        if (cached != null) {
+            return cached.data();
+        }
+        return renderLevel(imageUid, level, levelSize, column, row);
+    }
+
+    /**
+     * Renders all tiles of one level and stores them in the cache.
+     * Only one thread renders a given level at a time; others wait and then read the cached tile.
+     *
+     * @return The requested tile of the level.
+     */
+    private byte[] renderLevel(String imageUid, int level, Dimension levelSize, int column, int row) {
+        // A lock instead of synchronized, as the source image may be fetched while holding it,
+        // which would pin the carrier of a virtual thread
+        String lockKey = imageUid + ":" + level;
+        LevelLock lock = levelLocks.compute(lockKey, (key, existing) -> {
+            LevelLock levelLock = existing != null ? existing : new LevelLock();
+            levelLock.users++;
+            return levelLock;
+        });
+        lock.lock();
+        try {
+            // Another thread may have rendered the level while this one was waiting
+            CachedImage rendered = tileCache.get(tileKey(imageUid, level, column, row));
+            if (rendered != null) {
+                return rendered.data();
+            }
+
+            log.info("Rendering tile level {} ({}x{}) for UID: {}", level, levelSize.width, levelSize.height, imageUid);
+            try {
+                BufferedImage source = imageProcessingService.decode(imageService.getImageByUid(imageUid));
+                BufferedImage levelImage = imageProcessingService.scale(source, levelSize.width, levelSize.height);
+
+                byte[] requestedTile = null;
+                Instant renderedAt = Instant.now();
+                for (int y = 0; y * tileSize < levelSize.height; y++) {
+                    for (int x = 0; x * tileSize < levelSize.width; x++) {
+                        BufferedImage tile = levelImage.getSubimage(x * tileSize, y * tileSize,
+                                Math.min(tileSize, levelSize.width - x * tileSize),
+                                Math.min(tileSize, levelSize.height - y * tileSize));
+                        byte[] encoded = imageProcessingService.encodeJpeg(tile, quality);
+                        if (x == column && y == row) {
+                            requestedTile = encoded;
+                        }
+                        tileCache.put(tileKey(imageUid, level, x, y), new CachedImage(encoded, renderedAt));
+                    }
+                }
+                return requestedTile;
+            } catch (IllegalArgumentException | UncheckedIOException e) {
+                log.error("Failed to render tile level {} for UID: {}", level, imageUid, e);
+                throw new InvalidPathException(imageUid, "Failed to render tiles from image");
+            }
+        } finally {
+            lock.unlock();
+            // Removed only once no other thread holds or waits for the lock, so all of them share one lock
+            levelLocks.computeIfPresent(lockKey, (key, levelLock) -> --levelLock.users == 0 ? null : levelLock);
+        }
+    }
+
+    /**
+     * Returns the full-resolution size of an image, reading it from the image header once.
+     */
+    private Dimension getDimensions(String imageUid) {
+        return dimensions.computeIfAbsent(imageUid, uid -> {
+            try {
+                return imageProcessingService.readDimensions(imageService.getImageByUid(uid));
+            } catch (IllegalArgumentException e) {
+                log.error("Failed to read dimensions of image for UID: {}", uid, e);
+                throw new InvalidPathException(uid, "Failed to read image dimensions");
+            }
+        });
+    }
+
+    /**
+     * Computes the size of a pyramid level. The highest level is the full image, each lower level is half as large.
+     *
+     * @throws ResourceNotFoundException If the level does not exist.
+     */
+    private Dimension getLevelSize(Dimension fullSize, int level) {
+        int maxLevel = 32 - Integer.numberOfLeadingZeros(Math.max(fullSize.width, fullSize.height) - 1);
+        if (level < 0 || level > maxLevel) {
+            throw new ResourceNotFoundException("Level " + level + " does not exist, the maximum level is " + maxLevel);
+        }
+        double scale = Math.pow(2, level - maxLevel);
+        return new Dimension(
+                Math.max(1, (int) Math.ceil(fullSize.width * scale)),
+                Math.max(1, (int) Math.ceil(fullSize.height * scale)));
+    }
+
+    private String tileKey(String imageUid, int level, int column, int row) {
+        return TILE_CACHE_PREFIX + level + "/" + column + "_" + row + ":" + imageUid;
+    }
+
+    /**
+     * Lock of a level, counting the threads that hold or wait for it. The count is only changed inside
+     * {@link Map#compute} of the lock map, which is atomic per key.
+     */
+    private static final class LevelLock extends ReentrantLock {
+        private int users;
+    }
+}
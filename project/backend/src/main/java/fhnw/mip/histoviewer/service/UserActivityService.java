@@ -0,0 +1,177 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.model.User;
+import fhnw.mip.histoviewer.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind buffer for the last image and last search of each user.
+ * <p>
+ * Image views and searches only record the activity in memory, which keeps the database write off their
+ * latency path. Repeated updates of the same user are coalesced, and all pending updates are written in one
+ * transaction on a fixed schedule and on shutdown, so Hibernate can send them as batched UPDATEs.
+ * </p>
+ */
+@Log4j2
+@RequiredArgsConstructor
+@Service
+public class UserActivityService {
+
+    private final UserRepository userRepository;
+    private final PlatformTransactionManager transactionManager;
+
+    private final Map<String, PendingActivity> pendingActivities = new ConcurrentHashMap<>();
+
+    /**
+     * Records the image a user has opened last.
+     *
+     * @param username The username of the user.
+     * @param imageUid The UID of the opened image.
+     */
+    public void recordLastImage(String username, String imageUid) {
+        pendingActivities.merge(username, new PendingActivity(imageUid, null), PendingActivity::overriddenBy);
+    }
+
+    /**
+     * Records the search a user has run last. A new search also resets the last image.
+     *
+     * @param username   The username of the user.
+     * @param lastSearch The search criteria as JSON.
+     */
+    public void recordLastSearch(String username, String lastSearch) {
+        pendingActivities.merge(username, new PendingActivity("", lastSearch), PendingActivity::overriddenBy);
+    }
+
+    /**
+     * Returns the last image of a user that has not been written to the database yet.
+     *
+     * @param username The username of the user.
+     * @return The pending last image, or empty if there is none.
+     */
+    public Optional<String> getPendingLastImage(String username) {
+        return Optional.ofNullable(pendingActivities.get(username)).map(PendingActivity::lastImage);
+    }
+
+    /**
+     * Returns the last search of a user that has not been written to the database yet.
+     *
+     * @param username The username of the user.
+     * @return The pending last search, or empty if there is none.
+     */
+    public Optional<String> getPendingLastSearch(String username) {
+        return Optional.ofNullable(pendingActivities.get(username)).map(PendingActivity::lastSearch);
+    }
+
+    /**
+     * Applies the activity of a user that has not been written yet to the given user and removes it from the buffer,
+     * e.g. before the user is updated explicitly.
+     *
+     * @param user The user to update.
+     */
+    public void applyPending(User user) {
+        PendingActivity activity = pendingActivities.remove(user.getUsername());
+        if (activity != null) {
+            activity.applyTo(user);
+        }
+    }
+
+    /**
+     * Discards the activity of a user that has not been written yet, e.g. because the user is deleted.
+     *
+     * @param username The username of the user.
+     */
+    public void discardPending(String username) {
+        pendingActivities.remove(username);
+    }
+
+    /**
+     * Discards the activity of all users that has not been written yet, e.g. because all users are deleted.
+     */
+    public void discardAllPending() {
+        pendingActivities.clear();
+    }
+
+    /**
+     * Writes all pending activities to the database in a single transaction.
+     * Users that do not exist yet are created with default values, as on their first search or image view.
+     * If the write fails, the activities are queued again unless newer ones have been recorded meanwhile.
+     */
+    @Scheduled(fixedDelayString = "${user.activity.flush-interval}")
+    @PreDestroy
+    public void flush() {
+        if (pendingActivities.isEmpty()) {
+            return;
+        }
+
+        Map<String, PendingActivity> batch = new HashMap<>();
+        for (String username : pendingActivities.keySet()) {
+            PendingActivity activity = pendingActivities.remove(username);
+            if (activity != null) {
+                batch.put(username, activity);
+            }
+        }
+
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                Map<String, User> users = userRepository.findAllByUsernameIn(batch.keySet()).stream()
+                        .collect(Collectors.toMap(User::getUsername, Function.identity()));
+
+                batch.forEach((username, activity) -> {
+                    User user = users.get(username);
+                    if (user == null) {
+                        log.info("Creating new user with username: {}", username);
+                        user = UserService.withDefaults(username);
+                        user.setLastImage("");
+                        user.setLastSearch("");
+                        activity.applyTo(user);
+                        userRepository.save(user);
+                    } else {
+                        activity.applyTo(user);
+                    }
+                });
+            });
+            log.debug("Flushed activity of {} users.", batch.size());
+        } catch (Exception e) {
+            log.error("Failed to flush activity of {} users, retrying with the next flush.", batch.size(), e);
+            batch.forEach((username, activity) ->
+                    pendingActivities.merge(username, activity, (newer, failed) -> failed.overriddenBy(newer)));
+        }
+    }
+
+    /**
+     * Activity of one user waiting to be written. A null field leaves the stored value unchanged.
+     *
+     * @param lastImage  The last image viewed by the user.
+     * @param lastSearch The last search made by the user.
+     */
+    private record PendingActivity(String lastImage, String lastSearch) {
+
+        PendingActivity overriddenBy(PendingActivity newer) {
+            return new PendingActivity(
+                    newer.lastImage != null ? newer.lastImage : lastImage,
+                    newer.lastSearch != null ? newer.lastSearch : lastSearch);
+        }
+
+        void applyTo(User user) {
+            if (lastImage != null) {
+                user.setLastImage(lastImage);
+            }
+            if (lastSearch != null) {
+                user.setLastSearch(lastSearch);
+            }
+        }
+    }
+}
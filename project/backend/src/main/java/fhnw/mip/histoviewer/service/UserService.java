@@ -1,5 +1,8 @@
 package fhnw.mip.histoviewer.service;
 
+import fhnw.mip.histoviewer.cache.SearchResultCache;
+import fhnw.mip.histoviewer.model.Comment;
+import fhnw.mip.histoviewer.model.DicomData;
 import fhnw.mip.histoviewer.model.User;
 import fhnw.mip.histoviewer.repository.CommentRepository;
 import fhnw.mip.histoviewer.repository.UserRepository;
@@ -8,7 +11,9 @@ import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 
 /**
@@ -21,6 +26,9 @@ public class UserService {
 
     private final UserRepository userRepository;
     private final CommentRepository commentRepository;
+    private final SearchIndexService searchIndexService;
+    private final SearchResultCache searchResultCache;
+    private final UserActivityService userActivityService;
 
     /**
      * Retrieves a user by their username.
@@ -42,11 +50,7 @@ public class UserService {
     public User addUser(String username) {
         log.info("Creating new user with username: {}", username);
 
-        User newUser = new User();
-        newUser.setUsername(username);
-        newUser.setDefaultSliderValue("50");  // Default slider value
-        newUser.setDefaultMode("dark");     // Default mode
-        newUser.setDefaultLanguage("de");   // Default language
+        User newUser = withDefaults(username);
 
         // Save the new user to the database
         User savedUser = userRepository.save(newUser);
@@ -54,9 +58,25 @@ public class UserService {
         return savedUser;
     }
 
+    /**
+     * Creates a new, unsaved user with default values.
+     *
+     * @param username The username of the new user.
+     * @return The new User object.
+     */
+    static User withDefaults(String username) {
+        User newUser = new User();
+        newUser.setUsername(username);
+        newUser.setDefaultSliderValue("50");  // Default slider value
+        newUser.setDefaultMode("dark");     // Default mode
+        newUser.setDefaultLanguage("de");   // Default language
+        return newUser;
+    }
+
     /**
      * Updates an existing user by applying the provided fields.
      * Only fields that are present in the request will be updated.
+     * Activity of the user that has not been written yet is applied first, so the request is not overwritten by it.
      *
      * @param username The username of the user to update.
      * @param fields A map containing the fields to update.
@@ -69,6 +89,7 @@ public class UserService {
 
         if (existingUser.isPresent()) {
             User user = existingUser.get();
+            userActivityService.applyPending(user);
 
             // Check and apply only the fields that are present in the request body
             fields.forEach((key, value) -> {
@@ -120,10 +141,20 @@ public class UserService {
 
         if (userOptional.isPresent()) {
             User user = userOptional.get();
+            // Pending activity would otherwise create the user again
+            userActivityService.discardPending(username);
 
             // Delete all comments associated with the user
             log.info("Deleting all comments for user with username: {}", username);
+            List<Long> commentedIds = user.getComments().stream()
+                    .map(Comment::getDicomData)
+                    .filter(Objects::nonNull)
+                    .map(DicomData::getId)
+                    .distinct()
+                    .toList();
             commentRepository.deleteAllCommentsByUser(user);
+            searchIndexService.rebuild();
+            searchResultCache.evictByCriterion(SearchResultCache.COMMENTS, commentedIds, List.of());
 
             // Delete the user
             userRepository.delete(user);
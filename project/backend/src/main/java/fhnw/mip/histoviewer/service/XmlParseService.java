@@ -1,6 +1,7 @@
 package fhnw.mip.histoviewer.service;
 
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import fhnw.mip.histoviewer.cache.SearchResultCache;
 import fhnw.mip.histoviewer.model.DicomData;
 import fhnw.mip.histoviewer.repository.DicomDataRepository;
 import lombok.Getter;
@@ -24,6 +25,7 @@ public class XmlParseService {
 
     private final String SOPINSTANCEPREFIX = "1.2.826.0.1.3680043.";
     private final DicomDataRepository dicomDataRepository;
+    private final SearchResultCache searchResultCache;
 
     /**
      * Parses XML data from a MultipartFile and saves the relevant data to the database.
@@ -101,5 +103,7 @@ public class XmlParseService {
                 log.debug("DicomData with UID {} already exists.", uid);
             }
         }
+        // New entries may match any cached search
+        searchResultCache.clear();
     }
 }
@@ -1,5 +1,7 @@
 package fhnw.mip.histoviewer.specifications;
 
+import fhnw.mip.histoviewer.config.ArrayFunctionContributor;
+import fhnw.mip.histoviewer.config.TrigramFunctionContributor;
 import fhnw.mip.histoviewer.model.Comment;
 import fhnw.mip.histoviewer.model.DicomData;
 import fhnw.mip.histoviewer.model.Tag;
@@ -8,6 +10,9 @@ import jakarta.persistence.criteria.JoinType;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.data.jpa.domain.Specification;
 
+import java.util.Collection;
+import java.util.stream.Collectors;
+
 /**
  * Specification class for DicomData entity to build dynamic queries based on various search conditions.
  * Inspired by https://www.youtube.com/watch?v=AWBSWlM0JmQ
@@ -58,6 +63,51 @@ public class DicomEntitySpecification {
         };
     }
 
+    /**
+     * Creates a specification to search for a term similar to a word of the description, tolerating typos.
+     * Requires the {@code pg_trgm} extension; the condition uses the trigram index on the description.
+     * Trigrams ignore case, so the column is compared as is to keep the index usable.
+     *
+     * @param providedTerm The term to search for in the description.
+     * @return A Specification that matches DicomData whose description contains a word similar to the term.
+     */
+    public static Specification<DicomData> similarToTermInDescription(String providedTerm) {
+        log.debug("Creating fuzzy specification for term '{}' in description.", providedTerm);
+
+        return (root, query, criteriaBuilder) -> {
+            if (providedTerm == null || providedTerm.isEmpty()) {
+                log.warn("Provided term for fuzzy description search is null or empty.");
+                return criteriaBuilder.conjunction();  // Return an empty query if the term is null or empty
+            }
+            return criteriaBuilder.isTrue(criteriaBuilder.function(TrigramFunctionContributor.WORD_SIMILAR,
+                    Boolean.class, criteriaBuilder.literal(providedTerm), root.get("description")));
+        };
+    }
+
+    /**
+     * Creates a specification to search for an image that has a tag similar to the provided one, tolerating typos.
+     * Requires the {@code pg_trgm} extension; the condition uses the trigram index on the tag name.
+     *
+     * @param providedTag The tag to search for.
+     * @return A Specification that matches DicomData with a tag similar to the provided one.
+     */
+    public static Specification<DicomData> hasSimilarTag(String providedTag) {
+        log.debug("Creating fuzzy specification for tag '{}' in DicomData.", providedTag);
+
+        return (root, query, criteriaBuilder) -> {
+            if (providedTag == null || providedTag.isEmpty()) {
+                log.warn("Provided tag for fuzzy DicomData search is null or empty.");
+                return criteriaBuilder.conjunction();  // Return an empty query if the tag is null or empty
+            }
+            if (query != null) {
+                query.distinct(true); // Several similar tags of one image must not duplicate it
+            }
+            Join<DicomData, Tag> tagJoin = root.join("tags", JoinType.INNER);
+            return criteriaBuilder.isTrue(criteriaBuilder.function(TrigramFunctionContributor.SIMILAR,
+                    Boolean.class, tagJoin.get("name"), criteriaBuilder.literal(providedTag)));
+        };
+    }
+
     /**
      * Creates a specification to search for a term in the comments of the DicomData.
      *
@@ -100,4 +150,33 @@ public class DicomEntitySpecification {
                     providedColor.toLowerCase());
         };
     }
-}
\ No newline at end of file
+
+    /**
+     * Creates a specification to restrict the DicomData to the given IDs, e.g. as resolved by the search index.
+     * The IDs are passed as one array, so their number is not limited by the bind parameters of a statement.
+     *
+     * @param ids The IDs of the matching DicomData.
+     * @return A Specification that matches DicomData with one of the given IDs, or none if the set is empty.
+     */
+    public static Specification<DicomData> hasIdIn(Collection<Long> ids) {
+        log.debug("Creating specification for {} IDs in DicomData.", ids.size());
+
+        String array = ids.stream().map(String::valueOf).collect(Collectors.joining(",", "{", "}"));
+        return (root, query, criteriaBuilder) -> ids.isEmpty()
+                ? criteriaBuilder.disjunction()
+                : criteriaBuilder.isTrue(criteriaBuilder.function(ArrayFunctionContributor.ID_IN_ARRAY,
+                        Boolean.class, root.get("id"), criteriaBuilder.literal(array)));
+    }
+
+    /**
+     * Creates a specification for DicomData after a given ID, used as the keyset condition of a paginated search.
+     *
+     * @param id The ID of the last entry of the previous page, or null for the first page.
+     * @return A Specification that matches DicomData with an ID greater than the given one.
+     */
+    public static Specification<DicomData> hasIdGreaterThan(Long id) {
+        return (root, query, criteriaBuilder) -> id == null
+                ? criteriaBuilder.conjunction()
+                : criteriaBuilder.greaterThan(root.get("id"), id);
+    }
+}
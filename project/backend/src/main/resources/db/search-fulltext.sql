@@ -0,0 +1,10 @@
+-- Full-text search (search.engine=fulltext): German stemmed vectors of descriptions and comments.
+-- Hibernate cannot generate them; runs after the schema is created, see spring.sql.init.*
+
+alter table dicom_data add column if not exists search_vector tsvector
+    generated always as (to_tsvector('german', coalesce(description, ''))) stored;
+create index if not exists dicom_data_search_vector_idx on dicom_data using gin (search_vector);
+
+alter table comments add column if not exists search_vector tsvector
+    generated always as (to_tsvector('german', coalesce(text, ''))) stored;
+create index if not exists comments_search_vector_idx on comments using gin (search_vector);
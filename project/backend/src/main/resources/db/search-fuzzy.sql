@@ -0,0 +1,7 @@
+-- Fuzzy search (search.engine=fuzzy): trigram indexes for the similarity operators % and <%.
+-- Hibernate cannot generate them; runs after the schema is created, see spring.sql.init.*
+-- Requires the pg_trgm extension, which is not created here, as that needs the CREATE privilege on the database.
+-- The compose setup installs it with config/postgres/init-extensions.sql.
+
+create index if not exists dicom_data_description_trgm_idx on dicom_data using gin (description gin_trgm_ops);
+create index if not exists tags_name_trgm_idx on tags using gin (name gin_trgm_ops);
@@ -0,0 +1,100 @@
+package fhnw.mip.histoviewer.cache;
+
+import fhnw.mip.histoviewer.service.ImageStreamConsumer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageCacheServiceTests {
+
+    private static final int DISK_MAX_BYTES = 1024;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void imageFittingIntoDiskTierIsFetchedOnce() throws IOException {
+        ImageCacheService service = createService("files");
+        byte[] data = data(DISK_MAX_BYTES / 2);
+        AtomicInteger requests = new AtomicInteger();
+
+        assertArrayEquals(data, stream(service, source(data, data.length, requests)));
+        assertArrayEquals(data, stream(service, source(data, data.length, requests)));
+
+        assertEquals(1, requests.get());
+        assertTrue(service.contains("key"));
+    }
+
+    @Test
+    void imageTooLargeForDiskTierIsForwardedFromTheSameRequest() throws IOException {
+        for (String store : new String[]{"files", "mapped"}) {
+            ImageCacheService service = createService(store);
+            byte[] data = data(4 * DISK_MAX_BYTES);
+            AtomicInteger requests = new AtomicInteger();
+
+            assertArrayEquals(data, stream(service, source(data, data.length, requests)), store);
+            assertArrayEquals(data, stream(service, source(data, -1, requests)), store);
+
+            assertEquals(2, requests.get(), store);
+            assertFalse(service.contains("key"), store);
+        }
+    }
+
+    private ImageCacheService createService(String store) {
+        ImageCacheService service = new ImageCacheService(new SimpleMeterRegistry());
+        // Too small for the memory tier, so every lookup goes to the disk tier
+        ReflectionTestUtils.setField(service, "memoryMaxSize", DataSize.ofBytes(1));
+        ReflectionTestUtils.setField(service, "memoryTtl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(service, "diskEnabled", true);
+        ReflectionTestUtils.setField(service, "diskPath", directory.resolve(store).toString());
+        ReflectionTestUtils.setField(service, "diskMaxSize", DataSize.ofBytes(DISK_MAX_BYTES));
+        ReflectionTestUtils.setField(service, "diskTtl", Duration.ofHours(1));
+        ReflectionTestUtils.setField(service, "diskStore", store);
+        ReflectionTestUtils.setField(service, "diskSegmentSize", DataSize.ofBytes(DISK_MAX_BYTES));
+        ReflectionTestUtils.setField(service, "diskCompactionThreshold", 0.5);
+        service.init();
+        return service;
+    }
+
+    private static byte[] stream(ImageCacheService service, Consumer<ImageStreamConsumer> source) throws IOException {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        service.stream("key", source, (body, contentLength) -> body.transferTo(received));
+        return received.toByteArray();
+    }
+
+    /**
+     * Counts the upstream requests and hands the data on like Orthanc would.
+     */
+    private static Consumer<ImageStreamConsumer> source(byte[] data, long contentLength, AtomicInteger requests) {
+        return consumer -> {
+            requests.incrementAndGet();
+            try {
+                consumer.accept(new ByteArrayInputStream(data), contentLength);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) 'i');
+        return data;
+    }
+}
@@ -0,0 +1,308 @@
+package fhnw.mip.histoviewer.cache;
+
+import fhnw.mip.histoviewer.service.ImageStreamConsumer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class MappedImageCacheTests {
+
+    private static final Duration TTL = Duration.ofHours(1);
+    private static final int DATA_LENGTH = 64;
+    /** Header (17), a one-character key and the data. */
+    private static final int RECORD_SIZE = 17 + 1 + DATA_LENGTH;
+    private static final ImageStreamConsumer NO_OVERFLOW = (body, contentLength) -> fail("Entry was not kept");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void entriesSurviveRestart() throws IOException {
+        MappedImageCache cache = new MappedImageCache(directory, 1 << 20, 4096, TTL, 0.5);
+        cache.put("a", image('a'));
+        cache.put("b", image('b'));
+        cache.remove("b");
+
+        MappedImageCache reopened = new MappedImageCache(directory, 1 << 20, 4096, TTL, 0.5);
+
+        assertArrayEquals(data('a'), reopened.get("a").data());
+        assertNull(reopened.get("b"));
+        assertEquals(cache.getCurrentBytes(), reopened.getCurrentBytes());
+    }
+
+    @Test
+    void newestRecordWinsOnRecovery() throws IOException {
+        // One record per segment, and more than ten segments, so the file names do not sort numerically
+        MappedImageCache cache = new MappedImageCache(directory, 1 << 20, RECORD_SIZE, TTL, 0.5);
+        cache.put("a", image('1'));
+        for (char key = 'b'; key <= 'm'; key++) {
+            cache.put(String.valueOf(key), image(key));
+        }
+        cache.put("a", image('2'));
+        // An interrupted relocation leaves the old record committed next to the new one
+        markCommitted(directory.resolve("segment-0.seg"));
+
+        MappedImageCache reopened = new MappedImageCache(directory, 1 << 20, RECORD_SIZE, TTL, 0.5);
+
+        assertArrayEquals(data('2'), reopened.get("a").data());
+    }
+
+    @Test
+    void compactionMovesLiveEntriesAndDeletesSegment() throws IOException {
+        // Three records per segment
+        MappedImageCache cache = new MappedImageCache(directory, 1 << 20, 3 * RECORD_SIZE, TTL, 0.5);
+        cache.put("a", image('a'));
+        cache.put("b", image('b'));
+        cache.put("c", image('c'));
+        cache.put("d", image('d'));
+        cache.remove("a");
+        cache.remove("b");
+
+        assertTrue(cache.compact() > 0);
+
+        assertFalse(Files.exists(directory.resolve("segment-0.seg")));
+        assertArrayEquals(data('c'), cache.get("c").data());
+        MappedImageCache reopened = new MappedImageCache(directory, 1 << 20, 3 * RECORD_SIZE, TTL, 0.5);
+        assertArrayEquals(data('c'), reopened.get("c").data());
+        assertArrayEquals(data('d'), reopened.get("d").data());
+        assertNull(reopened.get("a"));
+        assertEquals(cache.getCurrentBytes(), reopened.getCurrentBytes());
+    }
+
+    @Test
+    void writeOfUnknownLengthReturnsUnusedSpaceToSegment() throws IOException {
+        MappedImageCache cache = new MappedImageCache(directory, 1 << 20, 4096, TTL, 0.5);
+        cache.write("a", new PausingInputStream(data('a'), null, null), -1, NO_OVERFLOW);
+        cache.put("b", image('b'));
+
+        assertArrayEquals(data('a'), cache.get("a").data());
+        assertArrayEquals(data('b'), cache.get("b").data());
+        assertEquals(2 * RECORD_SIZE, cache.getCurrentBytes());
+        assertFalse(Files.exists(directory.resolve("segment-1.seg")));
+        assertConsistentAfterRestart(cache, 1 << 20, 4096, "ab");
+    }
+
+    @Test
+    void writeOfUnknownLengthMovesToNewSegmentWhenRestIsTooSmall() throws IOException {
+        // After the first record, 146 data bytes fit into the rest of the segment and 228 into a new one
+        MappedImageCache cache = new MappedImageCache(directory, 1 << 20, 3 * RECORD_SIZE, TTL, 0.5);
+        cache.put("a", image('a'));
+        byte[] data = data('b', 200);
+        cache.write("b", new PausingInputStream(data, null, null), -1, NO_OVERFLOW);
+
+        assertArrayEquals(data('a'), cache.get("a").data());
+        assertArrayEquals(data, cache.get("b").data());
+        assertTrue(Files.exists(directory.resolve("segment-1.seg")));
+        assertConsistentAfterRestart(cache, 1 << 20, 3 * RECORD_SIZE, "ab");
+    }
+
+    @Test
+    void bodyLargerThanSegmentIsHandedToOverflow() throws IOException {
+        MappedImageCache cache = new MappedImageCache(directory, 1 << 20, 2 * RECORD_SIZE, TTL, 0.5);
+        byte[] data = data('a', 4 * DATA_LENGTH);
+
+        ByteArrayOutputStream known = new ByteArrayOutputStream();
+        InputStream body = new ByteArrayInputStream(data);
+        cache.write("a", body, data.length, (overflow, contentLength) -> {
+            // Handed on without reading any of it
+            assertSame(body, overflow);
+            assertEquals(data.length, contentLength);
+            overflow.transferTo(known);
+        });
+        ByteArrayOutputStream unknown = new ByteArrayOutputStream();
+        cache.write("a", new PausingInputStream(data, null, null), -1, (overflow, contentLength) -> {
+            assertEquals(-1, contentLength);
+            overflow.transferTo(unknown);
+        });
+
+        assertArrayEquals(data, known.toByteArray());
+        assertArrayEquals(data, unknown.toByteArray());
+        assertNull(cache.get("a"));
+        cache.put("b", image('b'));
+        assertConsistentAfterRestart(cache, 1 << 20, 2 * RECORD_SIZE, "ab");
+    }
+
+    @Test
+    void evictionSkipsSegmentWithRecordBeingWritten() throws Exception {
+        // One record per segment, budget for three
+        MappedImageCache cache = new MappedImageCache(directory, 3 * RECORD_SIZE, RECORD_SIZE, TTL, 0.5);
+        CountDownLatch halfWritten = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> slowWrite = executor.submit(() ->
+                    cache.write("s", new PausingInputStream(data('s'), halfWritten, resume), DATA_LENGTH, NO_OVERFLOW));
+            assertTrue(halfWritten.await(5, TimeUnit.SECONDS));
+
+            // Rolls over to new segments and exceeds the budget while the slow record is still open
+            for (char key = 'a'; key <= 'h'; key++) {
+                cache.put(String.valueOf(key), image(key));
+            }
+            assertTrue(Files.exists(directory.resolve("segment-0.seg")));
+
+            resume.countDown();
+            slowWrite.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        CachedImage slow = cache.get("s");
+        if (slow != null) {
+            assertArrayEquals(data('s'), slow.data());
+        }
+        assertConsistentAfterRestart(cache, 3 * RECORD_SIZE, RECORD_SIZE, "sabcdefgh");
+    }
+
+    @Test
+    void concurrentWritesWithEvictionAndCompactionKeepEntriesIntact() throws Exception {
+        int segmentSize = 4 * RECORD_SIZE;
+        MappedImageCache cache = new MappedImageCache(directory, 6L * segmentSize, segmentSize, TTL, 0.5);
+        String keys = "abcdefghijklmnopqrstuvwxyz";
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int writer = 0; writer < 4; writer++) {
+                tasks.add(executor.submit(() -> {
+                    for (int round = 0; round < 50; round++) {
+                        for (char key : keys.toCharArray()) {
+                            // Every other write reserves the rest of a segment and trims it afterwards
+                            cache.write(String.valueOf(key), new PausingInputStream(data(key), null, null),
+                                    round % 2 == 0 ? DATA_LENGTH : -1, NO_OVERFLOW);
+                            if (round % 3 == 0) {
+                                cache.remove(String.valueOf(key));
+                            }
+                        }
+                    }
+                    return null;
+                }));
+            }
+            tasks.add(executor.submit(() -> {
+                for (int round = 0; round < 200; round++) {
+                    cache.compact();
+                }
+            }));
+            for (Future<?> task : tasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (char key : keys.toCharArray()) {
+            CachedImage image = cache.get(String.valueOf(key));
+            if (image != null) {
+                assertArrayEquals(data(key), image.data());
+            }
+        }
+        assertConsistentAfterRestart(cache, 6L * segmentSize, segmentSize, keys);
+    }
+
+    /**
+     * Every entry served before a restart is served after it, and no bytes are accounted for deleted segments.
+     */
+    private void assertConsistentAfterRestart(MappedImageCache cache, long maxBytes, int segmentSize, String keys)
+            throws IOException {
+        MappedImageCache reopened = new MappedImageCache(directory, maxBytes, segmentSize, TTL, 0.5);
+        for (char key : keys.toCharArray()) {
+            CachedImage before = cache.get(String.valueOf(key));
+            CachedImage after = reopened.get(String.valueOf(key));
+            if (before == null) {
+                assertNull(after, "entry " + key);
+            } else {
+                assertNotNull(after, "entry " + key);
+                assertArrayEquals(before.data(), after.data(), "entry " + key);
+            }
+        }
+        assertEquals(cache.getCurrentBytes(), reopened.getCurrentBytes());
+    }
+
+    private static CachedImage image(char content) {
+        return new CachedImage(data(content), Instant.now());
+    }
+
+    private static byte[] data(char content) {
+        return data(content, DATA_LENGTH);
+    }
+
+    private static byte[] data(char content, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) content);
+        return data;
+    }
+
+    private static void markCommitted(Path segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{2}), 0);
+        }
+    }
+
+    /**
+     * Delivers half of the data, then waits until it may continue, if latches are given.
+     */
+    private static final class PausingInputStream extends InputStream {
+        private final byte[] data;
+        private final CountDownLatch halfWritten;
+        private final CountDownLatch resume;
+        private int position;
+
+        PausingInputStream(byte[] data, CountDownLatch halfWritten, CountDownLatch resume) {
+            this.data = data;
+            this.halfWritten = halfWritten;
+            this.resume = resume;
+        }
+
+        @Override
+        public int read() {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) {
+            if (position == data.length) {
+                return -1;
+            }
+            if (position == data.length / 2 && halfWritten != null) {
+                halfWritten.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            int end = position < data.length / 2 ? data.length / 2 : data.length;
+            int count = Math.min(length, end - position);
+            System.arraycopy(data, position, target, offset, count);
+            position += count;
+            return count;
+        }
+    }
+}
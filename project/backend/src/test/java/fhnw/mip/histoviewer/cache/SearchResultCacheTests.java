@@ -0,0 +1,158 @@
+package fhnw.mip.histoviewer.cache;
+
+import fhnw.mip.histoviewer.service.SearchEngine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SearchResultCacheTests {
+
+    private static final Map<String, String> FIRST = Map.of(SearchResultCache.DESCRIPTION, "katze");
+    private static final Map<String, String> SECOND = Map.of(SearchResultCache.DESCRIPTION, "hund");
+    private static final Map<String, String> THIRD = Map.of(SearchResultCache.TAGS, "Niere");
+
+    private SearchResultCache cache;
+
+    @BeforeEach
+    void createCache() {
+        cache = new SearchResultCache(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "capacity", 10);
+        ReflectionTestUtils.setField(cache, "searchEngine", SearchEngine.LIKE);
+        cache.init();
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedSearchesBeyondCapacity() {
+        // Every entry counts one more than its IDs
+        cache.put(FIRST, List.of(1L, 2L, 3L, 4L), cache.getGeneration());
+        cache.put(SECOND, List.of(5L, 6L, 7L, 8L), cache.getGeneration());
+        assertEquals(10L, currentSize());
+
+        // Reading the first search makes the second one the least recently used
+        cache.get(FIRST);
+        cache.put(THIRD, List.of(9L, 10L), cache.getGeneration());
+
+        assertEquals(Optional.of(List.of(1L, 2L, 3L, 4L)), cache.get(FIRST));
+        assertEquals(Optional.empty(), cache.get(SECOND));
+        assertEquals(Optional.of(List.of(9L, 10L)), cache.get(THIRD));
+        assertEquals(2, cache.size());
+        assertEquals(8L, currentSize());
+    }
+
+    @Test
+    void replacingSearchKeepsSizeAccurate() {
+        cache.put(FIRST, List.of(1L, 2L, 3L), cache.getGeneration());
+        cache.put(FIRST, List.of(1L), cache.getGeneration());
+        assertEquals(2L, currentSize());
+
+        cache.evictContaining(1L);
+
+        assertEquals(0, cache.size());
+        assertEquals(0L, currentSize());
+    }
+
+    @Test
+    void discardsResultOfSearchOverlappingEviction() {
+        long generation = cache.getGeneration();
+        // A writer evicts while the search queries the database
+        cache.evictByCriterion(SearchResultCache.DESCRIPTION);
+        cache.put(FIRST, List.of(1L), generation);
+
+        assertEquals(Optional.empty(), cache.get(FIRST));
+        assertEquals(0L, currentSize());
+    }
+
+    @Test
+    void evictsOnlyAfterTransactionCommitted() {
+        cache.put(FIRST, List.of(1L), cache.getGeneration());
+        cache.put(THIRD, List.of(2L), cache.getGeneration());
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.evictByCriterion(SearchResultCache.DESCRIPTION);
+        // A search started before the commit must neither see the eviction yet nor cache the old state afterwards
+        long generation = cache.getGeneration();
+        assertEquals(Optional.of(List.of(1L)), cache.get(FIRST));
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+        cache.put(SECOND, List.of(3L), generation);
+
+        assertEquals(Optional.empty(), cache.get(FIRST));
+        assertEquals(Optional.empty(), cache.get(SECOND));
+        assertEquals(Optional.of(List.of(2L)), cache.get(THIRD));
+    }
+
+    @Test
+    void keepsEntriesWhenTransactionRolledBack() {
+        cache.put(FIRST, List.of(1L), cache.getGeneration());
+
+        TransactionSynchronizationManager.initSynchronization();
+        cache.evictContaining(1L);
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(synchronization ->
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        assertEquals(Optional.of(List.of(1L)), cache.get(FIRST));
+    }
+
+    @Test
+    void addingValuesEvictsOnlySearchesContainingTheEntryOrMatchingTheValues() {
+        Map<String, String> kidney = Map.of(SearchResultCache.TAGS, "Niere");
+        Map<String, String> liverOrLung = Map.of(SearchResultCache.TAGS, "Leber Lunge");
+        Map<String, String> heart = Map.of(SearchResultCache.TAGS, "Herz");
+        Map<String, String> cat = Map.of(SearchResultCache.COMMENTS, "katze");
+        cache.put(kidney, List.of(1L), cache.getGeneration());
+        cache.put(liverOrLung, List.of(2L), cache.getGeneration());
+        cache.put(heart, List.of(3L), cache.getGeneration());
+        cache.put(cat, List.of(4L), cache.getGeneration());
+
+        // Entry 1 is replaced in its searches, and entry 5 may now match the searches for its new tag
+        cache.evictByCriterion(SearchResultCache.TAGS, List.of(1L, 5L), List.of("Lunge"));
+        cache.evictByCriterion(SearchResultCache.COMMENTS, List.of(5L), List.of("Eine Katze im Präparat"));
+
+        assertEquals(Optional.empty(), cache.get(kidney));
+        assertEquals(Optional.empty(), cache.get(liverOrLung));
+        assertEquals(Optional.of(List.of(3L)), cache.get(heart));
+        assertEquals(Optional.empty(), cache.get(cat));
+    }
+
+    @Test
+    void normalizeFoldsEquivalentCriteria() {
+        Map<String, String> key = SearchResultCache.normalize(Map.of(
+                SearchResultCache.DESCRIPTION, "  Katze \t Hund ",
+                SearchResultCache.TAGS, "Niere  Leber",
+                SearchResultCache.COMMENTS, " ",
+                "unknown", "value"));
+
+        assertEquals(Map.of(
+                SearchResultCache.DESCRIPTION, "katze hund",
+                SearchResultCache.TAGS, "Niere Leber"), key);
+        assertEquals(key, SearchResultCache.normalize(Map.of(
+                SearchResultCache.DESCRIPTION, "katze hund",
+                SearchResultCache.TAGS, "Niere Leber")));
+    }
+
+    private long currentSize() {
+        return (long) ReflectionTestUtils.getField(cache, "currentSize");
+    }
+}
@@ -0,0 +1,30 @@
+package fhnw.mip.histoviewer.config;
+
+import fhnw.mip.histoviewer.service.PreviewWarmUpHealthIndicator;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.actuate.health.HealthEndpointGroup;
+import org.springframework.boot.actuate.health.HealthEndpointGroups;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HealthGroupConfigTests {
+
+    @Test
+    void previewWarmUpIsOnlyLeftOutOfOverallHealth() {
+        HealthEndpointGroup primary = Mockito.mock(HealthEndpointGroup.class);
+        HealthEndpointGroup readiness = Mockito.mock(HealthEndpointGroup.class);
+        Mockito.when(primary.isMember(Mockito.anyString())).thenReturn(true);
+
+        HealthEndpointGroups groups = new HealthGroupConfig().previewWarmUpHealthGroupsPostProcessor()
+                .postProcessHealthEndpointGroups(HealthEndpointGroups.of(primary, Map.of("readiness", readiness)));
+
+        assertFalse(groups.getPrimary().isMember(PreviewWarmUpHealthIndicator.NAME));
+        assertTrue(groups.getPrimary().isMember("db"));
+        assertSame(readiness, groups.get("readiness"));
+    }
+}
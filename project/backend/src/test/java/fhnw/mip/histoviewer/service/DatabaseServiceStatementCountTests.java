@@ -0,0 +1,181 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.dto.ImageSummary;
+import fhnw.mip.histoviewer.model.Comment;
+import fhnw.mip.histoviewer.model.DicomData;
+import fhnw.mip.histoviewer.model.Tag;
+import fhnw.mip.histoviewer.repository.DicomDataRepository;
+import fhnw.mip.histoviewer.repository.TagRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Guards against N+1 loading: the number of statements of a listing must not grow with the catalog.
+ * Background jobs that access the database are disabled, as the statistics count the statements of all threads.
+ */
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "search.cache.enabled=false",
+        "image.prefetch.enabled=false",
+        "orthanc.instances.enabled=false",
+        "user.activity.flush-interval=PT1H"
+})
+@Transactional
+class DatabaseServiceStatementCountTests {
+
+    private static final String TAG_NAME = "statement-count-test";
+
+    @Autowired
+    private DatabaseService databaseService;
+    @Autowired
+    private DicomDataRepository dicomDataRepository;
+    @Autowired
+    private TagRepository tagRepository;
+    @Autowired
+    private EntityManager entityManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Tag tag;
+
+    @BeforeEach
+    void createTag() {
+        tag = new Tag();
+        tag.setName(TAG_NAME);
+        tag = tagRepository.save(tag);
+    }
+
+    @Test
+    void findAllStatementCountIsIndependentOfCatalogSize() {
+        addImages(3);
+        long fewImages = countStatements(() -> databaseService.findAll().forEach(this::initializeCollections));
+
+        addImages(20);
+        long manyImages = countStatements(() -> databaseService.findAll().forEach(this::initializeCollections));
+
+        assertEquals(fewImages, manyImages);
+    }
+
+    @Test
+    void findUidByCriteriaStatementCountIsIndependentOfCatalogSizeAndTagCount() {
+        Map<String, String> criteria = Map.of("tagSearchTerm", TAG_NAME);
+
+        for (int i = 0; i < 3; i++) {
+            addImage(1, 1);
+        }
+        long fewImages = countStatements(() -> assertSummaries(
+                databaseService.findUidByCriteria(criteria, "statement-count-test"), 3, 3));
+
+        for (int i = 0; i < 20; i++) {
+            addImage(5, 3);
+        }
+        long manyImages = countStatements(() -> assertSummaries(
+                databaseService.findUidByCriteria(criteria, "statement-count-test"), 23, 3 + 20 * 5));
+
+        assertEquals(fewImages, manyImages);
+    }
+
+    @Test
+    void findByUidLoadsTagsAndCommentsInTwoStatements() {
+        String fewChildren = addImage(1, 1);
+        String manyChildren = addImage(5, 10);
+
+        long fewStatements = countStatements(() -> initializeCollections(databaseService.findByUid(fewChildren)));
+        long manyStatements = countStatements(() -> initializeCollections(databaseService.findByUid(manyChildren)));
+
+        // One statement for the entity with its tags, one for its comments
+        assertEquals(2, fewStatements);
+        assertEquals(2, manyStatements);
+    }
+
+    /**
+     * Checks that the summaries carry all tags of their images, so the count covers loading them.
+     */
+    private void assertSummaries(List<ImageSummary> summaries, int expectedImages, int expectedTags) {
+        assertEquals(expectedImages, summaries.size());
+        for (ImageSummary summary : summaries) {
+            assertTrue(summary.tags().contains(TAG_NAME));
+        }
+        assertEquals(expectedTags, summaries.stream().mapToInt(summary -> summary.tags().size()).sum());
+    }
+
+    /**
+     * Accesses the collections the way serializing the entity does.
+     */
+    private void initializeCollections(DicomData dicomData) {
+        dicomData.getTags().size();
+        dicomData.getComments().size();
+    }
+
+    private void addImages(int count) {
+        Tag managedTag = tagRepository.findById(tag.getId()).orElseThrow();
+        for (int i = 0; i < count; i++) {
+            saveImage(List.of(managedTag), 2);
+        }
+        // Start from an empty persistence context, so nothing is served from it
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    /**
+     * Adds an image with the given number of tags and comments.
+     *
+     * @return The UID of the image.
+     */
+    private String addImage(int tagCount, int commentCount) {
+        List<Tag> tags = new ArrayList<>();
+        tags.add(tagRepository.findById(tag.getId()).orElseThrow());
+        for (int i = 1; i < tagCount; i++) {
+            Tag extraTag = new Tag();
+            extraTag.setName(TAG_NAME + "-" + UUID.randomUUID());
+            tags.add(tagRepository.save(extraTag));
+        }
+        String uid = saveImage(tags, commentCount);
+        entityManager.flush();
+        entityManager.clear();
+        return uid;
+    }
+
+    private String saveImage(List<Tag> tags, int commentCount) {
+        String uid = UUID.randomUUID().toString();
+        DicomData dicomData = new DicomData();
+        dicomData.setUid(uid);
+        dicomData.setSrc(uid + ".jpg");
+        dicomData.setDescription("Statement count test image " + uid);
+        dicomData.getTags().addAll(tags);
+        for (int j = 0; j < commentCount; j++) {
+            Comment comment = new Comment();
+            comment.setText("Comment " + j);
+            comment.setCreatedAt(LocalDateTime.now());
+            comment.setDicomData(dicomData);
+            dicomData.getComments().add(comment);
+        }
+        dicomDataRepository.save(dicomData);
+        return uid;
+    }
+
+    private long countStatements(Runnable action) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        action.run();
+        long count = statistics.getPrepareStatementCount();
+        entityManager.clear();
+        return count;
+    }
+}
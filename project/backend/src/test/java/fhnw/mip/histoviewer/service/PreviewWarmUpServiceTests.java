@@ -0,0 +1,39 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.repository.DicomDataRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PreviewWarmUpServiceTests {
+
+    @Test
+    void unexpectedFailureOfOneImageIsCountedAndWarmUpContinues() throws InterruptedException {
+        DicomDataRepository dicomDataRepository = Mockito.mock(DicomDataRepository.class);
+        ImageService imageService = Mockito.mock(ImageService.class);
+        Mockito.when(dicomDataRepository.findAllUids()).thenReturn(List.of("a", "b", "c"));
+        Mockito.when(imageService.getPreviewImageByUid("b")).thenThrow(new IllegalStateException("Broken preview"));
+
+        PreviewWarmUpService service = new PreviewWarmUpService(dicomDataRepository, imageService);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "concurrency", 1);
+        service.start();
+
+        Instant deadline = Instant.now().plus(Duration.ofSeconds(5));
+        while (service.getState() == PreviewWarmUpService.State.RUNNING && Instant.now().isBefore(deadline)) {
+            Thread.sleep(10);
+        }
+        service.shutdown();
+
+        assertEquals(PreviewWarmUpService.State.COMPLETED, service.getState());
+        assertEquals(3, service.getCompleted());
+        assertEquals(1, service.getFailed());
+        Mockito.verify(imageService).getPreviewImageByUid("c");
+    }
+}
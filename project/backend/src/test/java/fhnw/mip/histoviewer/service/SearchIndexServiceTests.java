@@ -0,0 +1,87 @@
+package fhnw.mip.histoviewer.service;
+
+import fhnw.mip.histoviewer.model.DicomData;
+import fhnw.mip.histoviewer.repository.CommentRepository;
+import fhnw.mip.histoviewer.repository.DicomDataRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class SearchIndexServiceTests {
+
+    private final DicomDataRepository dicomDataRepository = Mockito.mock(DicomDataRepository.class);
+    private final CommentRepository commentRepository = Mockito.mock(CommentRepository.class);
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void updatesIndexOnlyAfterCommit() {
+        SearchIndexService service = createService(SearchEngine.INDEX);
+
+        TransactionSynchronizationManager.initSynchronization();
+        service.index(image(1L, "Niere mit Rindenmark"));
+        assertEquals(Set.of(), service.findByDescription("niere"));
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(TransactionSynchronization::afterCommit);
+
+        assertEquals(Set.of(1L), service.findByDescription("niere"));
+    }
+
+    @Test
+    void keepsIndexWhenTransactionRolledBack() {
+        SearchIndexService service = createService(SearchEngine.INDEX);
+        service.index(image(1L, "Niere"));
+
+        TransactionSynchronizationManager.initSynchronization();
+        service.remove(1L);
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        synchronizations.forEach(synchronization ->
+                synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        assertEquals(Set.of(1L), service.findByDescription("niere"));
+    }
+
+    @Test
+    void keepsNoIndexForOtherEngines() {
+        SearchIndexService service = createService(SearchEngine.LIKE);
+
+        service.rebuild();
+        service.index(image(1L, "Niere"));
+
+        assertFalse(service.isReady());
+        assertEquals(Set.of(), service.findByDescription("niere"));
+        Mockito.verifyNoInteractions(dicomDataRepository, commentRepository);
+    }
+
+    private SearchIndexService createService(SearchEngine engine) {
+        SearchIndexService service = new SearchIndexService(dicomDataRepository, commentRepository);
+        ReflectionTestUtils.setField(service, "searchEngine", engine);
+        return service;
+    }
+
+    private static DicomData image(Long id, String description) {
+        DicomData image = new DicomData();
+        image.setId(id);
+        image.setDescription(description);
+        image.setComments(new ArrayList<>());
+        return image;
+    }
+}
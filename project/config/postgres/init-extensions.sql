@@ -0,0 +1,6 @@
+-- Extensions the backend needs but may not create itself, as creating them requires the CREATE privilege on the
+-- database. Run by the postgres image as superuser when the data directory is initialized; on an existing database,
+-- run it once as a role with that privilege.
+
+-- Trigram similarity of the fuzzy search engine (search.engine=fuzzy)
+create extension if not exists pg_trgm;
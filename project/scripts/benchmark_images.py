@@ -0,0 +1,127 @@
+"""
+Lastmessung der Bild-Endpunkte gegen einen lokalen Orthanc-Stub.
+
+Der Stub beantwortet WADO-Anfragen nach einer festen Verzögerung mit einem Dummy-Bild, so dass der Durchsatz
+nur vom Backend abhängt. Jede Anfrage verwendet eine neue UID, damit kein Cache-Treffer das Ergebnis verfälscht.
+
+Ablauf, jeweils einmal mit VIRTUAL_THREADS_ENABLED=false und einmal mit true:
+
+    VIRTUAL_THREADS_ENABLED=true java -jar app.jar \\
+        --orthanc.url=http://localhost:8042 \\
+        --orthanc.http.max-connections=2000 \\
+        --orthanc.bulkhead.max-concurrent-requests=2000 \\
+        --image.cache.disk.path=/tmp/histoviewer-bench-cache
+    python benchmark_images.py --concurrency 1000 --requests 10000
+
+Das Backend verbindet sich erst bei der ersten Anfrage mit Orthanc, der Stub kann also danach starten.
+
+Nur Standardbibliothek, damit das Skript ohne Installation läuft.
+"""
+import argparse
+import os
+import statistics
+import threading
+import time
+import urllib.request
+import uuid
+from concurrent.futures import ThreadPoolExecutor
+from http.server import BaseHTTPRequestHandler, ThreadingHTTPServer
+
+PAYLOAD = os.urandom(64 * 1024)
+
+
+class OrthancStub(BaseHTTPRequestHandler):
+    """Beantwortet jede GET-Anfrage verzögert mit dem Dummy-Bild und zählt die gleichzeitigen Anfragen."""
+    latency = 0.1
+    lock = threading.Lock()
+    active = 0
+    max_active = 0
+
+    def do_GET(self):
+        with OrthancStub.lock:
+            OrthancStub.active += 1
+            OrthancStub.max_active = max(OrthancStub.max_active, OrthancStub.active)
+        try:
+            time.sleep(OrthancStub.latency)
+            self.send_response(200)
+            self.send_header("Content-Type", "image/jpeg")
+            self.send_header("Content-Length", str(len(PAYLOAD)))
+            self.end_headers()
+            self.wfile.write(PAYLOAD)
+        finally:
+            with OrthancStub.lock:
+                OrthancStub.active -= 1
+
+    def log_message(self, format, *args):
+        pass
+
+
+def start_stub(port, latency_ms):
+    """Startet den Orthanc-Stub in einem Hintergrund-Thread."""
+    OrthancStub.latency = latency_ms / 1000
+    server = ThreadingHTTPServer(("0.0.0.0", port), OrthancStub)
+    server.daemon_threads = True
+    server.request_queue_size = 4096
+    threading.Thread(target=server.serve_forever, daemon=True).start()
+    print(f"Orthanc-Stub läuft auf Port {port} mit {latency_ms} ms Verzögerung")
+    return server
+
+
+def fetch(url):
+    """Ruft eine URL ab und gibt (Erfolg, Dauer in Sekunden) zurück."""
+    start = time.perf_counter()
+    try:
+        with urllib.request.urlopen(url, timeout=60) as response:
+            response.read()
+            return response.status == 200, time.perf_counter() - start
+    except Exception:
+        return False, time.perf_counter() - start
+
+
+def run_benchmark(backend, endpoint, concurrency, requests):
+    """Schickt die Anfragen mit der gewünschten Parallelität und gibt die Kennzahlen aus."""
+    run = uuid.uuid4().hex[:8]
+    urls = [f"{backend}/api/{endpoint}?imageUid=bench-{run}-{i}&username=benchmark" for i in range(requests)]
+
+    # Aufwärmen, damit JIT und Verbindungspools nicht in die Messung eingehen
+    with ThreadPoolExecutor(max_workers=50) as executor:
+        list(executor.map(fetch, urls[:100]))
+
+    start = time.perf_counter()
+    with ThreadPoolExecutor(max_workers=concurrency) as executor:
+        results = list(executor.map(fetch, urls[100:]))
+    elapsed = time.perf_counter() - start
+
+    durations = sorted(duration for ok, duration in results if ok)
+    errors = sum(1 for ok, _ in results if not ok)
+    print(f"Anfragen:      {len(results)} ({errors} Fehler), Parallelität {concurrency}")
+    print(f"Dauer:         {elapsed:.1f} s")
+    print(f"Durchsatz:     {len(durations) / elapsed:.0f} Anfragen/s")
+    if durations:
+        quantiles = statistics.quantiles(durations, n=100)
+        print(f"Latenz p50:    {quantiles[49] * 1000:.0f} ms")
+        print(f"Latenz p95:    {quantiles[94] * 1000:.0f} ms")
+        print(f"Latenz p99:    {quantiles[98] * 1000:.0f} ms")
+    print(f"Max. parallel bei Orthanc: {OrthancStub.max_active}")
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Lastmessung der Bild-Endpunkte gegen einen Orthanc-Stub")
+    parser.add_argument("--backend", default="http://localhost:8080")
+    parser.add_argument("--endpoint", default="previewImage", choices=["previewImage", "detailViewImage"])
+    parser.add_argument("--concurrency", type=int, default=1000)
+    parser.add_argument("--requests", type=int, default=10000)
+    parser.add_argument("--stub-port", type=int, default=8042)
+    parser.add_argument("--latency-ms", type=int, default=100)
+    parser.add_argument("--stub-only", action="store_true", help="Nur den Stub starten und laufen lassen")
+    args = parser.parse_args()
+
+    start_stub(args.stub_port, args.latency_ms)
+    if args.stub_only:
+        threading.Event().wait()
+        return
+    run_benchmark(args.backend, args.endpoint, args.concurrency, args.requests + 100)
+
+
+if __name__ == "__main__":
+    main()